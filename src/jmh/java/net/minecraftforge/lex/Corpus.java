@@ -0,0 +1,301 @@
+package net.minecraftforge.lex;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.cadixdev.atlas.AtlasTransformerContext;
+import org.cadixdev.bombe.analysis.CachingInheritanceProvider;
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.cadixdev.bombe.asm.analysis.ClassProviderInheritanceProvider;
+import org.cadixdev.bombe.jar.JarClassEntry;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.MethodMapping;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+/*
+ * Synthetic classes and the mappings for them, the same every time for the same size so runs can be compared.
+ *
+ * Class i extends the nearest plain class at (i - 1) / 4, so the hierarchy is a shallow tree like a real jar's, and every
+ * class overrides its parent's first method. Classes have mapped fields, methods and parameter names, and lambdas for a
+ * mapped functional interface. Every eighth class is one each of the cases the other transformers look for: an enum and
+ * an inner class with annotated constructor parameters, and a class with final fields and no constructor.
+ */
+class Corpus {
+    private static final String FN = "fn";
+    private static final Handle META_FACTORY = new Handle(H_INVOKESTATIC, "java/lang/invoke/LambdaMetafactory", "metafactory", "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;");
+
+    final Map<String, byte[]> classes = new LinkedHashMap<>();
+    final MappingSet mappings = MappingSet.create();
+    final StringBuilder tsrg2 = new StringBuilder("tsrg2 obf srg id\n");
+    private int ids = 0;
+
+    private final int fields, methods, lambdas;
+
+    private Corpus(int fields, int methods, int lambdas) {
+        this.fields = fields;
+        this.methods = methods;
+        this.lambdas = lambdas;
+    }
+
+    /**
+     * @param count Number of classes, not counting the functional interface
+     * @param lambdas Lambdas per class
+     */
+    static Corpus generate(int count, int lambdas) {
+        Corpus ret = new Corpus(4, 6, lambdas);
+        ret.functionalInterface();
+        for (int x = 0; x < count; x++)
+            ret.generate(x);
+        return ret;
+    }
+
+    private static String name(int index) {
+        return "c" + index;
+    }
+
+    private static int kind(int index) {
+        return index == 0 ? 0 : index % 8;
+    }
+
+    private static int parent(int index) {
+        if (index == 0)
+            return -1;
+        int ret = (index - 1) / 4;
+        while (kind(ret) >= 5)
+            ret--;
+        return ret;
+    }
+
+    private ClassMapping<?, ?> mapClass(String obf, String deobf) {
+        tsrg2.append(obf).append(' ').append(deobf).append(' ').append(ids++).append('\n');
+        return mappings.getOrCreateClassMapping(obf).setDeobfuscatedName(deobf.substring(deobf.lastIndexOf('$') + 1));
+    }
+
+    private void mapField(ClassMapping<?, ?> cls, String obf, String desc, String deobf) {
+        tsrg2.append('\t').append(obf).append(' ').append(deobf).append(' ').append(ids++).append('\n');
+        cls.getOrCreateFieldMapping(obf, desc).setDeobfuscatedName(deobf);
+    }
+
+    private void mapMethod(ClassMapping<?, ?> cls, String obf, String desc, String deobf, String... params) {
+        tsrg2.append('\t').append(obf).append(' ').append(desc).append(' ').append(deobf).append(' ').append(ids++).append('\n');
+        MethodMapping mtd = cls.getOrCreateMethodMapping(obf, desc).setDeobfuscatedName(deobf);
+        for (int x = 0; x < params.length; x++) {
+            tsrg2.append("\t\t").append(x + 1).append(' ').append(params[x]).append(' ').append(params[x]).append(' ').append(ids++).append('\n');
+            mtd.getOrCreateParameterMapping(x + 1).setDeobfuscatedName(params[x]);
+        }
+    }
+
+    private void functionalInterface() {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_ABSTRACT | ACC_INTERFACE, FN, null, "java/lang/Object", null);
+        cw.visitMethod(ACC_PUBLIC | ACC_ABSTRACT, "a", "(I)V", null, null).visitEnd();
+        cw.visitEnd();
+        classes.put(FN, cw.toByteArray());
+
+        mapMethod(mapClass(FN, "net/example/Consumer"), "a", "(I)V", "accept");
+    }
+
+    private void generate(int index) {
+        switch (kind(index)) {
+            case 5: generateEnum(index); break;
+            case 6: generateInner(index); break;
+            case 7: generateNoInit(index); break;
+            default: generatePlain(index);
+        }
+    }
+
+    private void generatePlain(int index) {
+        String name = name(index);
+        String parent = index == 0 ? "java/lang/Object" : name(parent(index));
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_SUPER, name, null, parent, null);
+        ClassMapping<?, ?> cls = mapClass(name, "net/example/Named" + index);
+
+        for (int x = 0; x < fields; x++) {
+            String desc = x % 2 == 0 ? "I" : "L" + parent + ";";
+            cw.visitField(ACC_PRIVATE, "f" + x, desc, null, null).visitEnd();
+            mapField(cls, "f" + x, desc, "field" + x);
+        }
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, parent, "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // m0 overrides the parent's, so its mapping is inherited rather than declared for every class but the root
+        for (int x = 0; x < methods; x++) {
+            String desc = x == 0 ? "(ILjava/lang/String;)I" : "(IL" + parent + ";)V";
+            mv = cw.visitMethod(ACC_PUBLIC, "m" + x, desc, null, null);
+            mv.visitCode();
+            Label start = new Label(), end = new Label();
+            mv.visitLabel(start);
+            if (x == 0) {
+                mv.visitVarInsn(ILOAD, 1);
+                mv.visitInsn(IRETURN);
+            } else {
+                mv.visitVarInsn(ALOAD, 0);
+                mv.visitVarInsn(ILOAD, 1);
+                mv.visitLdcInsn("value");
+                mv.visitMethodInsn(INVOKEVIRTUAL, name, "m0", "(ILjava/lang/String;)I", false);
+                mv.visitFieldInsn(PUTFIELD, name, "f0", "I");
+                mv.visitInsn(RETURN);
+            }
+            mv.visitLabel(end);
+            mv.visitLocalVariable("this", "L" + name + ";", null, start, end, 0);
+            mv.visitLocalVariable("\u2603", "I", null, start, end, 1);
+            mv.visitLocalVariable("\u2603", x == 0 ? "Ljava/lang/String;" : "L" + parent + ";", null, start, end, 2);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+            if (x != 0 || index == 0)
+                mapMethod(cls, "m" + x, desc, "method" + x, "count", "other");
+        }
+
+        for (int x = 0; x < lambdas; x++) {
+            String impl = "lambda$l" + x + "$0";
+            mv = cw.visitMethod(ACC_PUBLIC, "l" + x, "()L" + FN + ";", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitInvokeDynamicInsn("a", "(L" + name + ";)L" + FN + ";", META_FACTORY, Type.getType("(I)V"), new Handle(H_INVOKESPECIAL, name, impl, "(I)V", false), Type.getType("(I)V"));
+            mv.visitInsn(ARETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+
+            mv = cw.visitMethod(ACC_PRIVATE | ACC_SYNTHETIC, impl, "(I)V", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitVarInsn(ILOAD, 1);
+            mv.visitFieldInsn(PUTFIELD, name, "f0", "I");
+            mv.visitInsn(RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+            mapMethod(cls, "l" + x, "()L" + FN + ";", "lambda" + x);
+        }
+
+        cw.visitEnd();
+        classes.put(name, cw.toByteArray());
+    }
+
+    // javac 8 writes annotations for every parameter, synthetic ones included, which is what ParameterAnnotationFixer fixes
+    private static void annotateAll(MethodVisitor mv, int count) {
+        mv.visitAnnotableParameterCount(count, true);
+        for (int x = 0; x < count; x++) {
+            AnnotationVisitor av = mv.visitParameterAnnotation(x, "Ljavax/annotation/Nonnull;", true);
+            av.visitEnd();
+        }
+    }
+
+    private void generateEnum(int index) {
+        String name = name(index);
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_ENUM, name, null, "java/lang/Enum", null);
+        ClassMapping<?, ?> cls = mapClass(name, "net/example/Kind" + index);
+        cw.visitField(ACC_PRIVATE | ACC_FINAL, "f0", "I", null, null).visitEnd();
+        mapField(cls, "f0", "I", "value");
+
+        MethodVisitor mv = cw.visitMethod(ACC_PRIVATE, "<init>", "(Ljava/lang/String;II)V", null, null);
+        annotateAll(mv, 3);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitVarInsn(ILOAD, 2);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Enum", "<init>", "(Ljava/lang/String;I)V", false);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ILOAD, 3);
+        mv.visitFieldInsn(PUTFIELD, name, "f0", "I");
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        classes.put(name, cw.toByteArray());
+    }
+
+    private void generateInner(int index) {
+        String outer = name(parent(index));
+        String name = outer + "$i" + index;
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_SUPER, name, null, "java/lang/Object", null);
+        cw.visitInnerClass(name, outer, "i" + index, ACC_PUBLIC);
+        ClassMapping<?, ?> cls = mapClass(name, "net/example/Named" + parent(index) + "$Inner" + index);
+        cw.visitField(ACC_FINAL | ACC_SYNTHETIC, "this$0", "L" + outer + ";", null, null).visitEnd();
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "(L" + outer + ";I)V", null, null);
+        annotateAll(mv, 2);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitFieldInsn(PUTFIELD, name, "this$0", "L" + outer + ";");
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        mapMethod(cls, "<init>", "(L" + outer + ";I)V", "<init>", "outer", "count");
+
+        cw.visitEnd();
+        classes.put(name, cw.toByteArray());
+    }
+
+    private void generateNoInit(int index) {
+        String name = name(index);
+        String parent = name(parent(index));
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_SUPER, name, null, parent, null);
+        ClassMapping<?, ?> cls = mapClass(name, "net/example/Holder" + index);
+        cw.visitField(ACC_PRIVATE | ACC_FINAL, "f0", "I", null, null).visitEnd();
+        cw.visitField(ACC_PRIVATE | ACC_FINAL, "f1", "Ljava/lang/String;", null, null).visitEnd();
+        mapField(cls, "f0", "I", "count");
+        mapField(cls, "f1", "Ljava/lang/String;", "label");
+        cw.visitEnd();
+        classes.put(name, cw.toByteArray());
+    }
+
+    List<JarClassEntry> entries() {
+        List<JarClassEntry> ret = new ArrayList<>();
+        for (Map.Entry<String, byte[]> entry : classes.entrySet())
+            ret.add(new JarClassEntry(entry.getKey() + ".class", 0, entry.getValue()));
+        return ret;
+    }
+
+    /**
+     * The same inheritance provider Atlas would build for a jar of these classes, with no libraries.
+     */
+    AtlasTransformerContext context() {
+        InheritanceProvider inh = new CachingInheritanceProvider(new ClassProviderInheritanceProvider(ASM9, name -> classes.get(name)));
+        return new AtlasTransformerContext(inh);
+    }
+
+    void writeJar(Path path) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path);
+             ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey() + ".class"));
+                zip.write(entry.getValue());
+                zip.closeEntry();
+            }
+        }
+    }
+
+    void writeTSrg2(Path path) throws IOException {
+        Files.write(path, tsrg2.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,68 @@
+package net.minecraftforge.lex;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.vignette.JarRemapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * A whole jar through JarRemapper, the same path as the command line with every transformer enabled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class JarRemapBenchmark {
+    @Param({"1000", "10000"})
+    public int classes;
+
+    @Param({"false", "true"})
+    public boolean singlePass;
+
+    private Path input, output;
+    private JarRemapper remapper;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Corpus corpus = Corpus.generate(classes, 2);
+        input = Files.createTempFile("vignette-bench", ".jar");
+        output = Files.createTempFile("vignette-bench-out", ".jar");
+        corpus.writeJar(input);
+
+        MappingSet mappings = corpus.mappings;
+        remapper = new JarRemapper(mappings, null)
+            .fernflowerMeta(true)
+            .createInits(true)
+            .fixParamAnnotations(true)
+            .singlePass(singlePass);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        remapper.close();
+        Files.deleteIfExists(input);
+        Files.deleteIfExists(output);
+    }
+
+    @Benchmark
+    public void remap() throws IOException {
+        remapper.remap(input, output);
+    }
+}
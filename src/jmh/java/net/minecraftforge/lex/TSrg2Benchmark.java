@@ -0,0 +1,62 @@
+package net.minecraftforge.lex;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.io.MappingsReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Reading a generated TSRGv2 file, with the default namespaces and with a projection that needs the descriptor pass.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TSrg2Benchmark {
+    @Param({"1000", "10000"})
+    public int classes;
+
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = Files.createTempFile("vignette-bench", ".tsrg");
+        Corpus.generate(classes, 1).writeTSrg2(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public MappingSet read() throws IOException {
+        try (MappingsReader reader = new TSrg2Format().createReader(file)) {
+            return reader.read();
+        }
+    }
+
+    @Benchmark
+    public MappingSet readNamespaces() throws IOException {
+        try (MappingsReader reader = new TSrg2Format().withNamespaces("srg", "id").createReader(file)) {
+            return reader.read();
+        }
+    }
+}
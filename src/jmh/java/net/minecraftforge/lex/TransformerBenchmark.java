@@ -0,0 +1,117 @@
+package net.minecraftforge.lex;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.cadixdev.atlas.AtlasTransformerContext;
+import org.cadixdev.bombe.jar.JarClassEntry;
+import org.cadixdev.lorenz.asm.LorenzRemapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.commons.Remapper;
+
+/*
+ * Each transformer on its own, one class per invocation, cycling through the corpus. The input to the constructor and
+ * annotation benchmarks is the remapped corpus, as that's what they see in a real run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TransformerBenchmark {
+    @Param({"1000", "10000"})
+    public int classes;
+
+    @Param({"2"})
+    public int lambdas;
+
+    private Corpus corpus;
+    private AtlasTransformerContext ctx;
+    private JarClassEntry[] input;
+    private JarClassEntry[] remapped;
+    private EnhancedRemappingTransformer remapper;
+    private EnhancedRemappingTransformer singlePass;
+    private ConstructorInjector constructors;
+    private ParameterAnnotationFixer annotations;
+    private Remapper lorenz;
+    private ParameterNameIndex params;
+    private int index = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        corpus = Corpus.generate(classes, lambdas);
+        ctx = corpus.context();
+        List<JarClassEntry> entries = corpus.entries();
+        List<String> names = corpus.classes.keySet().stream().collect(Collectors.toList());
+        MappingCompleter.complete(corpus.mappings, ctx.inheritanceProvider(), names, ForkJoinPool.commonPool());
+
+        constructors = new ConstructorInjector(ctx, corpus.mappings);
+        annotations = new ParameterAnnotationFixer();
+        lorenz = new LorenzRemapper(corpus.mappings, ctx.inheritanceProvider());
+        params = ParameterNameIndex.build(corpus.mappings, ctx.inheritanceProvider());
+
+        input = entries.toArray(new JarClassEntry[0]);
+        remapped = new JarClassEntry[input.length];
+        EnhancedRemappingTransformer first = new EnhancedRemappingTransformer(corpus.mappings, ctx, true);
+        for (int x = 0; x < input.length; x++)
+            remapped[x] = first.transform(input[x]);
+    }
+
+    // The FernFlower metadata grows with every class transformed, so start each iteration with none, as a real run would
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+        remapper = new EnhancedRemappingTransformer(corpus.mappings, ctx, true);
+        singlePass = new EnhancedRemappingTransformer(corpus.mappings, ctx, true, Arrays.asList(constructors, annotations));
+    }
+
+    private int next() {
+        int ret = index;
+        index = ret + 1 == input.length ? 0 : ret + 1;
+        return ret;
+    }
+
+    @Benchmark
+    public JarClassEntry remap() {
+        return remapper.transform(input[next()]);
+    }
+
+    @Benchmark
+    public JarClassEntry singlePass() {
+        return singlePass.transform(input[next()]);
+    }
+
+    @Benchmark
+    public JarClassEntry constructorInjector() {
+        return constructors.transform(remapped[next()]);
+    }
+
+    @Benchmark
+    public JarClassEntry parameterAnnotationFixer() {
+        return annotations.transform(remapped[next()]);
+    }
+
+    // ExtendedClassRemapper straight over the plain Lorenz remapper, no caching or pass-through, for the invokedynamic handling
+    @Benchmark
+    public byte[] extendedClassRemapper() {
+        ClassReader reader = new ClassReader(input[next()].getContents());
+        ClassWriter writer = new ClassWriter(reader, 0);
+        reader.accept(new ExtendedClassRemapper(writer, lorenz, params, (cls, name, desc, names) -> {}), 0);
+        return writer.toByteArray();
+    }
+}
@@ -0,0 +1,213 @@
+package net.minecraftforge.lex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.io.MappingFormat;
+import org.cadixdev.lorenz.io.MappingsReader;
+import org.cadixdev.lorenz.io.MappingsWriter;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.FieldMapping;
+import org.cadixdev.lorenz.model.InnerClassMapping;
+import org.cadixdev.lorenz.model.MethodMapping;
+import org.cadixdev.lorenz.model.MethodParameterMapping;
+
+/*
+ * Compact binary dump of a MappingSet, meant as a cache of a parsed text mapping file rather than something to edit.
+ *
+ * Layout, all big endian:
+ *   int magic, int version
+ *   int string count, then each string as u2 length + UTF-8 bytes
+ *   int top level class count, then class records
+ * Every other value is an int, names being indexes into the string table (-1 for none):
+ *   class:  obf, deobf, field count, method count, inner class count, fields, methods, inner classes
+ *   field:  obf, type, deobf
+ *   method: obf, descriptor, deobf, parameter count, then (index, deobf) per parameter
+ */
+public class BinaryMappingFormat implements MappingFormat {
+    private static final int MAGIC = 0x564D4150; // VMAP
+    private static final int VERSION = 1;
+
+    @Override public MappingsReader createReader(final InputStream stream) throws IOException { return new Reader(ByteBuffer.wrap(readAll(stream))); }
+    @Override public MappingsReader createReader(final Path path) throws IOException { return new Reader(map(path)); }
+    @Override public MappingsWriter createWriter(final OutputStream stream) { return new Writer(stream); }
+    @Override public Optional<String> getStandardFileExtension() { return Optional.of("vmap"); }
+    @Override public String toString() { return "vmap"; }
+
+    private static byte[] readAll(InputStream stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[64 * 1024];
+        int len;
+        while ((len = stream.read(buf)) != -1)
+            out.write(buf, 0, len);
+        stream.close();
+        return out.toByteArray();
+    }
+
+    private static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static class Reader extends MappingsReader {
+        private final ByteBuffer buf;
+        private String[] strings;
+
+        private Reader(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public MappingSet read(final MappingSet mappings) throws IOException {
+            if (buf.remaining() < 8 || buf.getInt() != MAGIC)
+                throw new IOException("Not a binary mapping file");
+            int version = buf.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported binary mapping version " + version);
+
+            strings = new String[buf.getInt()];
+            byte[] scratch = new byte[256];
+            for (int x = 0; x < strings.length; x++) {
+                int len = buf.getShort() & 0xFFFF;
+                if (len > scratch.length)
+                    scratch = new byte[len];
+                buf.get(scratch, 0, len);
+                strings[x] = new String(scratch, 0, len, StandardCharsets.UTF_8);
+            }
+
+            for (int x = buf.getInt(); x > 0; x--) {
+                String obf = str();
+                readClass(mappings.getOrCreateTopLevelClassMapping(obf));
+            }
+            return mappings;
+        }
+
+        private void readClass(ClassMapping<?, ?> cls) {
+            cls.setDeobfuscatedName(str());
+            int fields = buf.getInt(), methods = buf.getInt(), inners = buf.getInt();
+
+            for (int x = 0; x < fields; x++) {
+                String obf = str(), type = str();
+                (type == null ? cls.getOrCreateFieldMapping(obf) : cls.getOrCreateFieldMapping(obf, type)).setDeobfuscatedName(str());
+            }
+
+            for (int x = 0; x < methods; x++) {
+                String obf = str(), desc = str();
+                MethodMapping mtd = cls.getOrCreateMethodMapping(obf, desc).setDeobfuscatedName(str());
+                for (int y = buf.getInt(); y > 0; y--) {
+                    int index = buf.getInt();
+                    mtd.getOrCreateParameterMapping(index).setDeobfuscatedName(str());
+                }
+            }
+
+            for (int x = 0; x < inners; x++)
+                readClass(cls.getOrCreateInnerClassMapping(str()));
+        }
+
+        private String str() {
+            int idx = buf.getInt();
+            return idx == -1 ? null : strings[idx];
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class Writer extends MappingsWriter {
+        private final OutputStream stream;
+        private final Map<String, Integer> index = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private int[] records = new int[1024];
+        private int size = 0;
+
+        private Writer(OutputStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void write(final MappingSet mappings) throws IOException {
+            List<ClassMapping<?, ?>> classes = new ArrayList<>(mappings.getTopLevelClassMappings());
+            add(classes.size());
+            for (ClassMapping<?, ?> cls : classes)
+                writeClass(cls);
+
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(strings.size());
+            for (String value : strings) {
+                byte[] data = value.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(data.length);
+                out.write(data);
+            }
+            ByteBuffer buf = ByteBuffer.allocate(size * 4);
+            buf.asIntBuffer().put(records, 0, size);
+            out.write(buf.array());
+            out.flush();
+        }
+
+        private void writeClass(ClassMapping<?, ?> cls) {
+            add(str(cls.getObfuscatedName()));
+            add(str(cls.getDeobfuscatedName()));
+            add(cls.getFieldMappings().size());
+            add(cls.getMethodMappings().size());
+            add(cls.getInnerClassMappings().size());
+
+            for (FieldMapping fld : cls.getFieldMappings()) {
+                add(str(fld.getObfuscatedName()));
+                add(str(fld.getSignature().getType().map(Object::toString).orElse(null)));
+                add(str(fld.getDeobfuscatedName()));
+            }
+
+            for (MethodMapping mtd : cls.getMethodMappings()) {
+                add(str(mtd.getObfuscatedName()));
+                add(str(mtd.getSignature().getDescriptor().toString()));
+                add(str(mtd.getDeobfuscatedName()));
+                add(mtd.getParameterMappings().size());
+                for (MethodParameterMapping param : mtd.getParameterMappings()) {
+                    add(param.getIndex());
+                    add(str(param.getDeobfuscatedName()));
+                }
+            }
+
+            for (InnerClassMapping inner : cls.getInnerClassMappings())
+                writeClass(inner);
+        }
+
+        private int str(String value) {
+            if (value == null)
+                return -1;
+            return index.computeIfAbsent(value, k -> {
+                strings.add(k);
+                return strings.size() - 1;
+            });
+        }
+
+        private void add(int value) {
+            if (size == records.length)
+                records = Arrays.copyOf(records, size * 2);
+            records[size++] = value;
+        }
+
+        @Override
+        public void close() throws IOException {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package net.minecraftforge.lex;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import org.objectweb.asm.commons.Remapper;
+
+/*
+ * Memoizes the results of another Remapper. The same types, descriptors and members get looked up over and over
+ * across a jar, and each miss in LorenzRemapper means parsing and rebuilding the descriptor or signature.
+ * Safe to share between threads, the delegate is only called on a miss.
+ */
+public class CachingRemapper extends Remapper {
+    public static final int DEFAULT_SIZE = 1 << 16;
+
+    private final Remapper delegate;
+    private final Cache<String> types, descs, methodDescs, signatures, typeSignatures;
+    private final Cache<MemberKey> methods, fields;
+
+    public CachingRemapper(Remapper delegate) {
+        this(delegate, DEFAULT_SIZE);
+    }
+
+    /**
+     * @param maxSize Maximum number of entries in each cache, one is emptied when it would grow past this
+     */
+    public CachingRemapper(Remapper delegate, int maxSize) {
+        this.delegate = delegate;
+        this.types = new Cache<>("types", maxSize);
+        this.descs = new Cache<>("descriptors", maxSize);
+        this.methodDescs = new Cache<>("method descriptors", maxSize);
+        this.signatures = new Cache<>("signatures", maxSize);
+        this.typeSignatures = new Cache<>("type signatures", maxSize);
+        this.methods = new Cache<>("methods", maxSize);
+        this.fields = new Cache<>("fields", maxSize);
+    }
+
+    @Override
+    public String map(String internalName) {
+        return types.get(internalName, delegate::map);
+    }
+
+    @Override
+    public String mapDesc(String descriptor) {
+        return descs.get(descriptor, delegate::mapDesc);
+    }
+
+    @Override
+    public String mapMethodDesc(String methodDescriptor) {
+        return methodDescs.get(methodDescriptor, delegate::mapMethodDesc);
+    }
+
+    @Override
+    public String mapSignature(String signature, boolean typeSignature) {
+        if (signature == null)
+            return null;
+        return typeSignature ? typeSignatures.get(signature, s -> delegate.mapSignature(s, true)) : signatures.get(signature, s -> delegate.mapSignature(s, false));
+    }
+
+    @Override
+    public String mapMethodName(String owner, String name, String descriptor) {
+        return methods.get(new MemberKey(owner, name, descriptor), k -> delegate.mapMethodName(k.owner, k.name, k.descriptor));
+    }
+
+    @Override
+    public String mapFieldName(String owner, String name, String descriptor) {
+        return fields.get(new MemberKey(owner, name, descriptor), k -> delegate.mapFieldName(k.owner, k.name, k.descriptor));
+    }
+
+    // Not worth caching, but must still go to the delegate in case it overrides them
+    @Override
+    public String mapInvokeDynamicMethodName(String name, String descriptor) {
+        return delegate.mapInvokeDynamicMethodName(name, descriptor);
+    }
+
+    @Override
+    public String mapPackageName(String name) {
+        return delegate.mapPackageName(name);
+    }
+
+    @Override
+    public String mapModuleName(String name) {
+        return delegate.mapModuleName(name);
+    }
+
+    /**
+     * @return A one line summary of the hit rate of each cache
+     */
+    public String getStats() {
+        StringBuilder ret = new StringBuilder();
+        for (Cache<?> cache : new Cache<?>[] { types, descs, methodDescs, signatures, typeSignatures, methods, fields }) {
+            if (ret.length() != 0)
+                ret.append(", ");
+            ret.append(cache);
+        }
+        return ret.toString();
+    }
+
+    private static class Cache<K> {
+        private final String name;
+        private final int maxSize;
+        private final Map<K, String> values = new ConcurrentHashMap<>();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        private Cache(String name, int maxSize) {
+            this.name = name;
+            this.maxSize = maxSize;
+        }
+
+        String get(K key, Function<K, String> compute) {
+            String ret = values.get(key);
+            if (ret != null) {
+                hits.increment();
+                return ret;
+            }
+
+            misses.increment();
+            ret = compute.apply(key);
+            if (ret != null) {
+                if (values.size() >= maxSize)
+                    values.clear(); // Cheap and good enough, the working set refills quickly
+                values.put(key, ret);
+            }
+            return ret;
+        }
+
+        @Override
+        public String toString() {
+            long hit = hits.sum(), total = hit + misses.sum();
+            return name + ' ' + hit + '/' + total + (total == 0 ? "" : String.format(" (%.1f%%)", hit * 100.0 / total));
+        }
+    }
+
+    private static class MemberKey {
+        private final String owner, name, descriptor;
+        private final int hash;
+
+        private MemberKey(String owner, String name, String descriptor) {
+            this.owner = owner;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.hash = Objects.hash(owner, name, descriptor);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof MemberKey))
+                return false;
+            MemberKey other = (MemberKey)o;
+            return hash == other.hash && owner.equals(other.owner) && name.equals(other.name) && Objects.equals(descriptor, other.descriptor);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package net.minecraftforge.lex;
+
+import org.objectweb.asm.ClassVisitor;
+
+/**
+ * A class transformer that can be chained into another transformer's ClassReader -> ClassWriter pass,
+ * so several transformers share a single parse and a single serialization of each class.
+ */
+public interface ClassStage {
+    /**
+     * @param next The visitor that receives the transformed class
+     * @return A visitor that applies this stage and forwards to {@code next}
+     */
+    ClassVisitor wrap(ClassVisitor next);
+}
@@ -2,10 +2,15 @@
 
 import static org.objectweb.asm.Opcodes.*;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import org.cadixdev.atlas.AtlasTransformerContext;
 import org.cadixdev.bombe.analysis.InheritanceProvider;
 import org.cadixdev.bombe.analysis.InheritanceProvider.ClassInfo;
@@ -18,46 +23,132 @@
 import org.cadixdev.bombe.type.ObjectType;
 import org.cadixdev.bombe.type.signature.MethodSignature;
 import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.InnerClassMapping;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.FieldVisitor;
 import org.objectweb.asm.MethodVisitor;
 
-public class ConstructorInjector implements JarEntryTransformer {
+public class ConstructorInjector implements JarEntryTransformer, ClassStage {
     private static final MethodDescriptor EMPTY = MethodDescriptor.of("()V");
     private final InheritanceProvider inh;
-    private final MappingSet o2m, m2o;
+    private final MappingSet o2m;
+    // Mapped class name -> obfuscated, all findSuper needs from the reversed mappings. Built on first use.
+    private volatile Map<String, String> m2o;
+    // Mapped superclass name -> the constructor we call, shared by every class extending it
+    private final Map<String, MethodDescriptor> supers = new ConcurrentHashMap<>();
 
     public ConstructorInjector(AtlasTransformerContext ctx, MappingSet mappings) {
         this.inh = ctx.inheritanceProvider();
         this.o2m = mappings;
-        this.m2o = mappings.reverse();
+    }
+
+    /**
+     * Resolves the super constructors for the given obfuscated classes ahead of time, so the workers only hit the cache.
+     */
+    public void prime(Collection<String> classes, ForkJoinPool pool) {
+        pool.submit(() -> classes.parallelStream()
+            .map(inh::provide)
+            .filter(Optional::isPresent)
+            .map(info -> info.get().getSuperName())
+            .filter(name -> name != null)
+            .distinct()
+            .forEach(name -> findSuper((ObjectType)o2m.deobfuscate(new ObjectType(name))))
+        ).join();
     }
 
     @Override
     public JarClassEntry transform(final JarClassEntry entry) {
         final ClassReader reader = new ClassReader(entry.getContents());
         final ClassWriter writer = new ClassWriter(reader, 0);
-        reader.accept(new InitAdder(writer), 0);
+        reader.accept(wrap(writer), 0);
         return new JarClassEntry(entry.getName(), entry.getTime(), writer.toByteArray());
     }
 
+    @Override
+    public ClassVisitor wrap(ClassVisitor next) {
+        return new InitAdder(next);
+    }
+
+    private MethodDescriptor findSuper(ObjectType parent) {
+        MethodDescriptor ret = supers.get(parent.getClassName());
+        if (ret == null) {
+            ret = resolveSuper(parent);
+            supers.putIfAbsent(parent.getClassName(), ret);
+        }
+        return ret;
+    }
+
+    private MethodDescriptor resolveSuper(ObjectType parent) {
+        boolean obfed = false;
+
+        Optional<ClassInfo> pcls = inh.provide(parent.getClassName());
+        if (!pcls.isPresent()) {
+            String obf = getReverse().get(parent.getClassName());
+            if (obf != null) {
+                pcls = inh.provide(obf);
+                if (pcls.isPresent())
+                    obfed = true;
+            }
+        }
+
+        MethodDescriptor sig = null;
+        if (pcls.isPresent()) {
+            for (Entry<MethodSignature, InheritanceType> entry : pcls.get().getMethods().entrySet()) {
+                if (!"<init>".equals(entry.getKey().getName()) || entry.getValue() == InheritanceType.NONE)
+                    continue;
+                MethodDescriptor edesc = entry.getKey().getDescriptor();
+                if (sig == null)
+                    sig = edesc;
+                else if (edesc.getParamTypes().size() < sig.getParamTypes().size())
+                    sig = edesc;
+                else if (edesc.getParamTypes().size() == sig.getParamTypes().size()) {
+                    if (edesc.toString().compareTo(sig.toString()) < 0) // Simple string sort in case different ordering of the methods map.
+                        sig = edesc;
+                }
+            }
+        }
+
+        return sig == null ? EMPTY : obfed ? o2m.deobfuscate(sig) : sig;
+    }
+
+    private Map<String, String> getReverse() {
+        Map<String, String> ret = m2o;
+        if (ret == null) {
+            synchronized (this) {
+                ret = m2o;
+                if (ret == null) {
+                    ret = new HashMap<>();
+                    for (ClassMapping<?, ?> cls : new ArrayList<>(o2m.getTopLevelClassMappings()))
+                        addReverse(ret, cls);
+                    m2o = ret;
+                }
+            }
+        }
+        return ret;
+    }
+
+    // Same lookups as MappingSet.reverse().getClassMapping, a name with no mapping of its own isn't translated
+    private static void addReverse(Map<String, String> m2o, ClassMapping<?, ?> cls) {
+        m2o.put(cls.getFullDeobfuscatedName(), cls.getFullObfuscatedName());
+        for (InnerClassMapping inner : new ArrayList<>(cls.getInnerClassMappings()))
+            addReverse(m2o, inner);
+    }
+
     private class InitAdder extends ClassVisitor {
         private String className, parentName, parentField;
         private ObjectType superType;
         private boolean hasInit = false;
         private boolean isStatic = false;
         private Map<String, FieldType> fields = new LinkedHashMap<>();
+        private final Log.Buffer log = Log.buffer();
 
         public InitAdder(ClassVisitor cv) {
             super(ASM9, cv);
         }
 
-        private void log(String message) {
-            System.out.println(message);
-        }
-
         @Override
         public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
             this.className = name;
@@ -106,7 +197,7 @@ public void visitEnd() {
                 return;
             }
 
-            log("  Adding synthetic <init> to " + className);
+            log.log("  Adding synthetic <init> to " + className);
 
             MethodVisitor mv;
             if (isInner)
@@ -116,13 +207,13 @@ public void visitEnd() {
 
             mv.visitVarInsn(ALOAD, 0);
             if (!sup.equals(EMPTY))
-                log("    Super: " + sup);
+                log.log("    Super: " + sup);
             for (FieldType p : sup.getParamTypes())
                 loadConstant(mv, p);
             mv.visitMethodInsn(INVOKESPECIAL, superType.getClassName(), "<init>", sup.toString(), false);
 
             if (isInner) {
-                log("    Inner: " + parentName + " " + parentField);
+                log.log("    Inner: " + parentName + " " + parentField);
                 mv.visitVarInsn(ALOAD, 0);
                 mv.visitVarInsn(ALOAD, 1);
                 mv.visitFieldInsn(PUTFIELD, className, parentField, parentName);
@@ -133,7 +224,7 @@ public void visitEnd() {
                     mv.visitVarInsn(ALOAD, 0);
                     loadConstant(mv, entry.getValue());
                     mv.visitFieldInsn(PUTFIELD, this.className, entry.getKey(), entry.getValue().toString());
-                    log("    Field: " + entry.getKey());
+                    log.log("    Field: " + entry.getKey());
                 }
             }
 
@@ -142,42 +233,10 @@ public void visitEnd() {
             mv.visitLdcInsn("Synthetic constructor do not call");
             mv.visitMethodInsn(INVOKESPECIAL, "java/lang/RuntimeException", "<init>", "(Ljava/lang/String;)V", false);
             mv.visitInsn(ATHROW);
+            log.flush();
             super.visitEnd();
         }
 
-        private MethodDescriptor findSuper(ObjectType parent) {
-            boolean obfed = false;
-            InheritanceProvider inh = ConstructorInjector.this.inh;
-            MappingSet o2m = ConstructorInjector.this.o2m;
-            MappingSet m2o = ConstructorInjector.this.m2o;
-
-            Optional<ClassInfo> pcls = inh.provide(parent.getClassName());
-            if (!pcls.isPresent()) {
-                pcls = inh.provide(((ObjectType)m2o.deobfuscate(parent)).getClassName());
-                if (pcls.isPresent())
-                    obfed = true;
-            }
-
-            MethodDescriptor sig = null;
-            if (pcls.isPresent()) {
-                for (Entry<MethodSignature, InheritanceType> entry : pcls.get().getMethods().entrySet()) {
-                    if (!"<init>".equals(entry.getKey().getName()) || entry.getValue() == InheritanceType.NONE)
-                        continue;
-                    MethodDescriptor edesc = entry.getKey().getDescriptor();
-                    if (sig == null)
-                        sig = edesc;
-                    else if (edesc.getParamTypes().size() < sig.getParamTypes().size())
-                        sig = edesc;
-                    else if (edesc.getParamTypes().size() == sig.getParamTypes().size()) {
-                        if (edesc.toString().compareTo(sig.toString()) < 0) // Simple string sort in case different ordering of the methods map.
-                            sig = edesc;
-                    }
-                }
-            }
-
-            return sig == null ? EMPTY : obfed ? o2m.deobfuscate(sig) : sig;
-        }
-
         private void loadConstant(MethodVisitor mv, FieldType type) {
             if (type instanceof BaseType) {
                 switch ((BaseType)type) {
@@ -2,16 +2,17 @@
 
 import static java.util.jar.Attributes.Name.MAIN_CLASS;
 
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiFunction;
+import java.util.function.Supplier;
 import java.util.jar.Attributes;
 import java.util.stream.Collectors;
 
@@ -32,27 +33,161 @@
 import org.objectweb.asm.commons.Remapper;
 
 public class EnhancedRemappingTransformer implements JarEntryTransformer, ExtendedClassRemapper.AbstractConsumer {
+    /**
+     * Where the FernFlower metadata goes in the jar
+     */
+    public static final String ABSTRACT_PARAMS = FernFlowerMetadata.NAME;
+
     private final boolean makeFFMeta;
-    private final Set<String> abstractParams = ConcurrentHashMap.newKeySet();
+    private final List<ClassStage> stages;
+    private final FernFlowerMetadata abstractParams = new FernFlowerMetadata();
+    // Set while transforming the classes of a nested jar, which get metadata of their own
+    private final ThreadLocal<FernFlowerMetadata> scope = new ThreadLocal<>();
+    private boolean streamed = false;
 
     public EnhancedRemappingTransformer(MappingSet mappings, AtlasTransformerContext ctx, boolean makeFFMeta) {
+        this(mappings, ctx, makeFFMeta, Collections.emptyList());
+    }
+
+    /**
+     * @param stages Extra transformers run in the same read/write pass, after remapping, in the order given.
+     *               The classes behave the same as installing them as separate transformers after this one, but aren't
+     *               always the same bytes. Each separate pass keeps the whole constant pool of the pass before, so
+     *               something a later stage drops, like the remapped descriptor of an annotation the
+     *               ParameterAnnotationFixer removes from a synthetic constructor parameter, stays in the pool there,
+     *               and never reaches it here.
+     */
+    public EnhancedRemappingTransformer(MappingSet mappings, AtlasTransformerContext ctx, boolean makeFFMeta, List<ClassStage> stages) {
+        this(new LorenzRemapper(mappings, ctx.inheritanceProvider()), ParameterNameIndex.build(mappings, ctx.inheritanceProvider()), PassThroughFilter.build(mappings), makeFFMeta, stages);
+    }
+
+    private EnhancedRemappingTransformer(Remapper remapper, ParameterNameIndex params, PassThroughFilter filter, boolean makeFFMeta, List<ClassStage> stages) {
         this.makeFFMeta = makeFFMeta;
+        this.stages = stages;
 
-        this.remapper = new LorenzRemapper(mappings, ctx.inheritanceProvider());
-        this.clsRemapper = (cv, remapper) -> new ExtendedClassRemapper(cv, remapper, mappings, ctx.inheritanceProvider(), this);
+        this.remapper = new CachingRemapper(remapper);
+        this.filter = filter;
+        this.clsRemapper = (cv, r) -> new ExtendedClassRemapper(cv, r, params, this);
+    }
+
+    /**
+     * Remaps a deobfuscated jar back to obfuscated names. The inheritance provider has to be deobfuscated as well, the
+     * input jar and any libraries. Parameters keep their names, and there's no FernFlower metadata.
+     *
+     * @param stages As for the forward constructor
+     */
+    public static EnhancedRemappingTransformer reverse(ReverseMappings mappings, AtlasTransformerContext ctx, List<ClassStage> stages) {
+        return new EnhancedRemappingTransformer(new ReverseRemapper(mappings, ctx.inheritanceProvider()), null, mappings.getFilter(), false, stages);
     }
 
     @Override
     public List<AbstractJarEntry> additions() {
-        if (!makeFFMeta || abstractParams.isEmpty())
+        if (!makeFFMeta || streamed || abstractParams.isEmpty())
             return Collections.emptyList();
-        byte[] data = abstractParams.stream().sorted().collect(Collectors.joining("\n")).getBytes(StandardCharsets.UTF_8);
-        return Arrays.asList(new JarResourceEntry("fernflower_abstract_parameter_names.txt", 1, data));
+        return Arrays.asList(new JarResourceEntry(ABSTRACT_PARAMS, 1, abstractParams.toByteArray()));
+    }
+
+    /**
+     * Leaves the FernFlower metadata out of {@link #additions()}, for a writer that can take it a line at a time from
+     * {@link #writeAbstractParams(OutputStream)} instead of the whole file at once.
+     */
+    public void streamAbstractParams() {
+        this.streamed = true;
+    }
+
+    /**
+     * Writes the FernFlower metadata, once every class is transformed.
+     *
+     * @return Whether there was any, nothing is written if not
+     */
+    public boolean writeAbstractParams(OutputStream out) throws IOException {
+        return write(abstractParams, out);
+    }
+
+    private boolean write(FernFlowerMetadata metadata, OutputStream out) throws IOException {
+        if (!makeFFMeta || metadata.isEmpty())
+            return false;
+        metadata.write(out);
+        return true;
+    }
+
+    private FernFlowerMetadata metadata() {
+        FernFlowerMetadata ret = scope.get();
+        return ret == null ? abstractParams : ret;
+    }
+
+    /**
+     * @return A place to collect the FernFlower metadata of a jar nested in the one being remapped, which goes in that jar
+     *         rather than the outer one
+     */
+    public NestedMetadata nestedMetadata() {
+        return new NestedMetadata();
+    }
+
+    public class NestedMetadata {
+        private final FernFlowerMetadata metadata = new FernFlowerMetadata();
+
+        private NestedMetadata() {}
+
+        /**
+         * Runs the task on the current thread, with everything it transforms adding to this jar's metadata.
+         */
+        public <T> T run(Supplier<T> task) {
+            FernFlowerMetadata prev = scope.get();
+            scope.set(metadata);
+            try {
+                return task.get();
+            } finally {
+                if (prev == null)
+                    scope.remove();
+                else
+                    scope.set(prev);
+            }
+        }
+
+        /**
+         * Writes the metadata file for the nested jar, once all of its classes are transformed.
+         *
+         * @return Whether there was any, nothing is written if not
+         */
+        public boolean write(OutputStream out) throws IOException {
+            return EnhancedRemappingTransformer.this.write(metadata, out);
+        }
+    }
+
+    /**
+     * @return Hit rates of the remapper's caches and how many classes were copied without remapping
+     */
+    public String getRemapperStats() {
+        return this.remapper.getStats() + ", passed through " + this.skipped.sum() + " classes";
     }
 
     @Override
     public void storeNames(String className, String methodName, String methodDescriptor, Collection<String> paramNames) {
-        abstractParams.add(className + ' ' + methodName + ' ' + methodDescriptor + ' ' + paramNames.stream().collect(Collectors.joining(" ")));
+        metadata().add(className, methodName, methodDescriptor, paramNames);
+    }
+
+    /**
+     * @return A mark to hand to {@link #getAbstractParams(int)} once the current thread has transformed a class
+     */
+    public int markAbstractParams() {
+        return metadata().mark();
+    }
+
+    /**
+     * @param mark Taken on the current thread just before it transformed the class
+     * @return What the class added to the FernFlower metadata, empty if nothing
+     */
+    public List<String> getAbstractParams(int mark) {
+        return metadata().since(mark);
+    }
+
+    /**
+     * Adds the FernFlower metadata for a class that wasn't transformed this run, such as one taken from a cache.
+     */
+    public void putAbstractParams(String className, List<String> lines) {
+        for (String line : lines)
+            metadata().add(line);
     }
 
 
@@ -61,15 +196,35 @@ public void storeNames(String className, String methodName, String methodDescrip
 
     private static final Attributes.Name SHA_256_DIGEST = new Attributes.Name("SHA-256-Digest");
 
-    private final Remapper remapper;
+    private final CachingRemapper remapper;
     private final BiFunction<ClassVisitor, Remapper, ClassRemapper> clsRemapper;
+    private final PassThroughFilter filter;
+    private final LongAdder skipped = new LongAdder();
     @Override
     public JarClassEntry transform(final JarClassEntry entry) {
+        // Nothing in it is mapped, copy it as is or only run the extra stages
+        if (this.filter.canSkip(entry.getContents(), this.makeFFMeta)) {
+            this.skipped.increment();
+            if (this.stages.isEmpty())
+                return entry;
+
+            final ClassReader reader = new ClassReader(entry.getContents());
+            final ClassWriter writer = new ClassWriter(reader, 0);
+            ClassVisitor next = writer;
+            for (int x = this.stages.size() - 1; x >= 0; x--)
+                next = this.stages.get(x).wrap(next);
+            reader.accept(next, 0);
+            return new JarClassEntry(entry.getName(), entry.getTime(), writer.toByteArray());
+        }
+
         // Remap the class
         final ClassReader reader = new ClassReader(entry.getContents());
         final ClassWriter writer = new ClassWriter(reader, 0);
+        ClassVisitor next = writer;
+        for (int x = this.stages.size() - 1; x >= 0; x--)
+            next = this.stages.get(x).wrap(next);
         reader.accept(this.clsRemapper.apply(
-                writer,
+                next,
                 this.remapper
         ), 0);
 
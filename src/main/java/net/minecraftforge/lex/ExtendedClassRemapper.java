@@ -5,11 +5,6 @@
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import org.cadixdev.bombe.analysis.InheritanceProvider;
-import org.cadixdev.bombe.type.signature.MethodSignature;
-import org.cadixdev.lorenz.MappingSet;
-import org.cadixdev.lorenz.model.ClassMapping;
-import org.cadixdev.lorenz.model.Mapping;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
@@ -25,14 +20,15 @@ interface AbstractConsumer {
         void storeNames(String className, String methodName, String methodDescriptor, Collection<String> paramNames);
     }
 
-    private final MappingSet mappings;
-    private final InheritanceProvider inheritanceProvider;
+    private final ParameterNameIndex params;
     private final AbstractConsumer abstractConsumer;
 
-    ExtendedClassRemapper(ClassVisitor classVisitor, Remapper remapper, MappingSet mappings, InheritanceProvider inheritanceProvider, AbstractConsumer abstractConsumer) {
+    /**
+     * @param params Names for parameters, or null to keep the ones in the class
+     */
+    ExtendedClassRemapper(ClassVisitor classVisitor, Remapper remapper, ParameterNameIndex params, AbstractConsumer abstractConsumer) {
         super(classVisitor, remapper);
-        this.mappings = mappings;
-        this.inheritanceProvider = inheritanceProvider;
+        this.params = params;
         this.abstractConsumer = abstractConsumer;
     }
 
@@ -94,18 +90,11 @@ public void visitInvokeDynamicInsn(final String name, final String descriptor, f
         };
     }
 
-    private ClassMapping<?, ?> getCompletedClassMapping(final String owner) {
-        final ClassMapping<?, ?> mapping = this.mappings.getOrCreateClassMapping(owner);
-        mapping.complete(this.inheritanceProvider);
-        return mapping;
-    }
-
     public String mapParameterName(final String owner, final String methodName, final String methodDescriptor, final int index, final String paramName) {
-        return this.getCompletedClassMapping(owner)
-                .getMethodMapping(MethodSignature.of(methodName, methodDescriptor))
-                .flatMap(m -> m.getParameterMapping(index))
-                .map(Mapping::getDeobfuscatedName)
-                .orElse(paramName);
+        if (this.params == null) // Remapping in reverse, there are no obfuscated names to go back to
+            return paramName;
+        final String mapped = this.params.get(owner, methodName, methodDescriptor, index);
+        return mapped == null ? paramName : mapped;
     }
 
     private void renameAbstract(int access, String name, String descriptor) {
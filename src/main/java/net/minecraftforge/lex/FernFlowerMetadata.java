@@ -0,0 +1,236 @@
+package net.minecraftforge.lex;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The abstract parameter names for ForgeFlower, one {@code class method descriptor names...} line per method, sorted and
+ * without duplicates.
+ *
+ * Each worker thread keeps its own unsynchronized list of records, the parts of a line without joining them. At the end
+ * every list is sorted on its own and the lists are merged, writing the lines out as they come off the merge.
+ */
+class FernFlowerMetadata {
+    static final String NAME = "fernflower_abstract_parameter_names.txt";
+
+    private final Collection<List<Record>> all = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<List<Record>> local = ThreadLocal.withInitial(() -> {
+        List<Record> ret = new ArrayList<>();
+        all.add(ret);
+        return ret;
+    });
+
+    void add(String className, String methodName, String methodDescriptor, Collection<String> paramNames) {
+        // With no names the line still ends in the separator, as an empty last part
+        String[] parts = new String[3 + Math.max(1, paramNames.size())];
+        parts[0] = className;
+        parts[1] = methodName;
+        parts[2] = methodDescriptor;
+        parts[3] = "";
+        int x = 3;
+        for (String name : paramNames)
+            parts[x++] = name;
+        local.get().add(new Record(parts));
+    }
+
+    void add(String line) {
+        local.get().add(new Record(line.split(" ", -1)));
+    }
+
+    /**
+     * @return Where the current thread's next line goes, for {@link #since(int)}
+     */
+    int mark() {
+        return local.get().size();
+    }
+
+    /**
+     * Lines added by the current thread since the given mark. The remapper adds everything for a class while transforming
+     * it, so marking before the transform and reading straight after is all that class added, even when another entry of
+     * the same name, say a multi-release copy, came just before it.
+     */
+    List<String> since(int mark) {
+        List<Record> records = local.get();
+        List<String> ret = new ArrayList<>(records.size() - mark);
+        for (int x = mark; x < records.size(); x++)
+            ret.add(records.get(x).toString());
+        return ret;
+    }
+
+    boolean isEmpty() {
+        for (List<Record> records : all) {
+            if (!records.isEmpty())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sorts and merges everything added so far into the given stream, lines separated by {@code \n} with none after the
+     * last. Must not run while lines are still being added.
+     */
+    void write(OutputStream out) throws IOException {
+        List<List<Record>> lists = new ArrayList<>();
+        for (List<Record> records : all) {
+            if (!records.isEmpty())
+                lists.add(records);
+        }
+        lists.parallelStream().forEach(records -> records.sort(null));
+
+        PriorityQueue<Cursor> queue = new PriorityQueue<>(Math.max(1, lists.size()));
+        for (List<Record> records : lists)
+            queue.add(new Cursor(records));
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new KeepOpen(out), StandardCharsets.UTF_8), 64 * 1024);
+        Record last = null;
+        while (!queue.isEmpty()) {
+            Cursor cursor = queue.poll();
+            Record next = cursor.current;
+            if (last == null || next.compareTo(last) != 0) {
+                if (last != null)
+                    writer.write('\n');
+                next.write(writer);
+                last = next;
+            }
+            if (cursor.advance())
+                queue.add(cursor);
+        }
+        writer.close(); // Not just flush, the encoder holds on to a trailing unpaired surrogate until closed
+    }
+
+    /**
+     * The whole file, for Atlas which wants the contents of an entry up front. Encoded straight from the records, the
+     * lines are never joined into one String.
+     */
+    byte[] toByteArray() {
+        long size = -1; // No separator after the last line
+        for (List<Record> records : all) {
+            for (Record record : records)
+                size += record.length() + 1;
+        }
+        ExactOutputStream out = new ExactOutputStream((int)Math.max(0, Math.min(Integer.MAX_VALUE - 8, size)));
+        try {
+            write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Can't happen, it's all in memory
+        }
+        return out.toByteArray();
+    }
+
+    private static class Record implements Comparable<Record> {
+        private final String[] parts;
+
+        private Record(String[] parts) {
+            this.parts = parts;
+        }
+
+        private int length() {
+            int ret = parts.length - 1;
+            for (String part : parts)
+                ret += part.length();
+            return ret;
+        }
+
+        private void write(Writer out) throws IOException {
+            for (int x = 0; x < parts.length; x++) {
+                if (x != 0)
+                    out.write(' ');
+                out.write(parts[x]);
+            }
+        }
+
+        /*
+         * Same order as comparing the joined lines, walking both as if the parts were joined with spaces.
+         */
+        @Override
+        public int compareTo(Record o) {
+            int ap = 0, ai = 0, bp = 0, bi = 0;
+            while (true) {
+                int a = charAt(parts, ap, ai);
+                int b = charAt(o.parts, bp, bi);
+                if (a != b)
+                    return a - b;
+                if (a == -1)
+                    return 0;
+                if (ai < parts[ap].length()) ai++; else { ap++; ai = 0; }
+                if (bi < o.parts[bp].length()) bi++; else { bp++; bi = 0; }
+            }
+        }
+
+        // The separating space after every part but the last, -1 at the end
+        private static int charAt(String[] parts, int part, int index) {
+            String value = parts[part];
+            if (index < value.length())
+                return value.charAt(index);
+            return part + 1 < parts.length ? ' ' : -1;
+        }
+
+        @Override
+        public String toString() {
+            return String.join(" ", parts);
+        }
+    }
+
+    private static class Cursor implements Comparable<Cursor> {
+        private final List<Record> records;
+        private int index = 0;
+        private Record current;
+
+        private Cursor(List<Record> records) {
+            this.records = records;
+            this.current = records.get(0);
+        }
+
+        private boolean advance() {
+            if (++index == records.size())
+                return false;
+            current = records.get(index);
+            return true;
+        }
+
+        @Override
+        public int compareTo(Cursor o) {
+            return current.compareTo(o.current);
+        }
+    }
+
+    private static class KeepOpen extends FilterOutputStream {
+        private KeepOpen(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+
+    // Hands back its buffer as is when the size was right, instead of copying it
+    private static class ExactOutputStream extends ByteArrayOutputStream {
+        private ExactOutputStream(int size) {
+            super(size);
+        }
+
+        @Override
+        public synchronized byte[] toByteArray() {
+            return count == buf.length ? buf : super.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package net.minecraftforge.lex;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Output for code running on the Atlas workers. Messages about one class go into a {@link Buffer} and are handed to a
+ * single background writer as one block when the class is done, so they don't interleave with another class's and the
+ * workers never wait on the console.
+ */
+public class Log {
+    public enum Level { QUIET, NORMAL, DEBUG }
+
+    private static volatile Level level = Level.NORMAL;
+    private static volatile Writer out = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+    private static boolean closeOut = false;
+    private static final BlockingQueue<Object> queue = new LinkedBlockingQueue<>(); // String blocks, or a CountDownLatch to signal once written
+    private static Thread writer;
+
+    /**
+     * @param level Which messages to write
+     * @param file The file to write to instead of the console, may be null
+     */
+    public static synchronized void configure(Level level, Path file) throws IOException {
+        flush();
+        if (closeOut)
+            out.close();
+        else
+            out.flush();
+        Log.level = level;
+        Log.out = file == null ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8) : Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        Log.closeOut = file != null;
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level != Level.QUIET && level.compareTo(Log.level) <= 0;
+    }
+
+    public static void log(String message) {
+        if (isEnabled(Level.NORMAL))
+            enqueue(message + System.lineSeparator());
+    }
+
+    public static void debug(String message) {
+        if (isEnabled(Level.DEBUG))
+            enqueue(message + System.lineSeparator());
+    }
+
+    public static Buffer buffer() {
+        return new Buffer();
+    }
+
+    /**
+     * Waits until everything logged so far has been written.
+     */
+    public static void flush() {
+        CountDownLatch latch = new CountDownLatch(1);
+        enqueue(latch);
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes out everything logged so far and closes the log file, if there is one. Logging afterwards goes to the console.
+     */
+    public static synchronized void close() throws IOException {
+        configure(Level.NORMAL, null);
+    }
+
+    private static void enqueue(Object value) {
+        start();
+        queue.add(value);
+    }
+
+    private static synchronized void start() {
+        if (writer != null)
+            return;
+        writer = new Thread(Log::run, "Vignette Log");
+        writer.setDaemon(true);
+        writer.start();
+        // The writer is a daemon, so don't lose what's queued when the run ends with an exception or System.exit
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "Vignette Log Shutdown"));
+    }
+
+    private static void run() {
+        boolean failed = false;
+        while (true) {
+            try {
+                Object value = queue.take();
+                Writer out = Log.out;
+                // Keep writing while there's more queued, only flushing the output once we catch up
+                do {
+                    if (value instanceof CountDownLatch) {
+                        try {
+                            out.flush();
+                        } finally {
+                            ((CountDownLatch)value).countDown(); // configure may replace the output once this is released
+                        }
+                        out = null;
+                        break;
+                    }
+                    out.write((String)value);
+                    value = queue.poll();
+                } while (value != null);
+                if (out != null)
+                    out.flush();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                // A broken output usually stays broken, so only say so once rather than for every message
+                if (!failed)
+                    System.err.println("Failed to write log: " + e);
+                failed = true;
+            }
+        }
+    }
+
+    /**
+     * Collects the messages about one class, to be used from one thread at a time. Nothing is written until
+     * {@link #flush()} is called.
+     */
+    public static class Buffer {
+        private StringBuilder buf;
+
+        private Buffer() {}
+
+        public void log(String message) {
+            if (isEnabled(Level.NORMAL))
+                append(message);
+        }
+
+        public void debug(String message) {
+            if (isEnabled(Level.DEBUG))
+                append(message);
+        }
+
+        private void append(String message) {
+            if (buf == null)
+                buf = new StringBuilder();
+            buf.append(message).append(System.lineSeparator());
+        }
+
+        public void flush() {
+            if (buf != null && buf.length() > 0)
+                enqueue(buf.toString());
+            buf = null;
+        }
+    }
+}
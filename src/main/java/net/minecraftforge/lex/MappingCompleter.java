@@ -0,0 +1,87 @@
+package net.minecraftforge.lex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.cadixdev.bombe.analysis.InheritanceProvider.ClassInfo;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.InnerClassMapping;
+
+/*
+ * Completes class mappings ahead of time, instead of lazily from whichever worker thread first touches a hierarchy.
+ *
+ * Everything that can change the MappingSet's structure, finding the hierarchy and creating the mappings for it, is done
+ * on the calling thread. Then classes are completed in parallel one hierarchy depth at a time, so parents are always done
+ * before their children, and the only writes left are each class's own inherited members. After this the MappingSet can
+ * be read from any number of threads.
+ */
+public class MappingCompleter {
+    private final MappingSet mappings;
+    private final InheritanceProvider inh;
+    private final Map<String, Integer> depths = new HashMap<>();
+    private final Map<String, ClassMapping<?, ?>> classes = new HashMap<>();
+
+    private MappingCompleter(MappingSet mappings, InheritanceProvider inh) {
+        this.mappings = mappings;
+        this.inh = inh;
+    }
+
+    /**
+     * @param extra Classes to complete besides the ones in the mappings, such as every class in the input jar
+     * @return The number of classes completed
+     */
+    public static int complete(MappingSet mappings, InheritanceProvider inh, Collection<String> extra, ForkJoinPool pool) {
+        MappingCompleter completer = new MappingCompleter(mappings, inh);
+
+        List<String> roots = new ArrayList<>(extra);
+        for (ClassMapping<?, ?> cls : new ArrayList<>(mappings.getTopLevelClassMappings()))
+            completer.collect(cls, roots);
+        for (String name : roots)
+            completer.depth(name);
+
+        List<List<ClassMapping<?, ?>>> levels = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : completer.depths.entrySet()) {
+            while (levels.size() <= entry.getValue())
+                levels.add(new ArrayList<>());
+            levels.get(entry.getValue()).add(completer.classes.get(entry.getKey()));
+        }
+
+        for (List<ClassMapping<?, ?>> level : levels)
+            pool.submit(() -> level.parallelStream().forEach(cls -> cls.complete(inh))).join();
+
+        return completer.depths.size();
+    }
+
+    private void collect(ClassMapping<?, ?> cls, List<String> names) {
+        names.add(cls.getFullObfuscatedName());
+        for (InnerClassMapping inner : new ArrayList<>(cls.getInnerClassMappings()))
+            collect(inner, names);
+    }
+
+    // Depth in the hierarchy, 0 for classes with no known parents. Also creates the mapping for every class visited.
+    private int depth(String name) {
+        Integer ret = depths.get(name);
+        if (ret != null)
+            return ret;
+        depths.put(name, 0); // Guards against cycles in broken class files
+
+        int depth = 0;
+        Optional<ClassInfo> info = inh.provide(name);
+        if (info.isPresent()) {
+            if (info.get().getSuperName() != null)
+                depth = Math.max(depth, depth(info.get().getSuperName()) + 1);
+            for (String itf : info.get().getInterfaces())
+                depth = Math.max(depth, depth(itf) + 1);
+        }
+
+        classes.put(name, mappings.getOrCreateClassMapping(name));
+        depths.put(name, depth);
+        return depth;
+    }
+}
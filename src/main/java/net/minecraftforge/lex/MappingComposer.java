@@ -0,0 +1,198 @@
+package net.minecraftforge.lex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.FieldMapping;
+import org.cadixdev.lorenz.model.InnerClassMapping;
+import org.cadixdev.lorenz.model.MethodMapping;
+import org.cadixdev.lorenz.model.MethodParameterMapping;
+import org.cadixdev.lorenz.model.TopLevelClassMapping;
+import org.objectweb.asm.commons.Remapper;
+
+/**
+ * Chains mapping sets, {@code a -> b} then {@code b -> c} into a single flattened {@code a -> c}. Anything the second set
+ * maps that the first doesn't is taken to be unchanged by the first, and parameters from the later set win.
+ *
+ * Both sets are only read while composing, in parallel per top level class, into plain plans that are then added to the
+ * new MappingSet on the calling thread, as creating mappings isn't safe to do from several threads at once. That rules
+ * out Lorenz's own descriptor translation too, which creates inner class mappings as it goes, so descriptors go through
+ * plain maps of full class names built up front instead.
+ */
+public class MappingComposer {
+    private final MappingSet first;
+    private final MappingSet second;
+    // Full names in the middle namespace -> first's obfuscated names, for descriptors that only appear in the second set
+    private final Map<String, String> middleToObf = new HashMap<>();
+    // And the other way, for the first set's own descriptors
+    private final Map<String, String> obfToMiddle = new HashMap<>();
+    private final Remapper toObf = remapper(middleToObf);
+    private final Remapper toMiddle = remapper(obfToMiddle);
+
+    private MappingComposer(MappingSet first, MappingSet second) {
+        this.first = first;
+        this.second = second;
+        for (TopLevelClassMapping cls : first.getTopLevelClassMappings())
+            addReverse(cls);
+    }
+
+    private void addReverse(ClassMapping<?, ?> cls) {
+        middleToObf.put(cls.getFullDeobfuscatedName(), cls.getFullObfuscatedName());
+        obfToMiddle.put(cls.getFullObfuscatedName(), cls.getFullDeobfuscatedName());
+        for (InnerClassMapping inner : cls.getInnerClassMappings())
+            addReverse(inner);
+    }
+
+    // An inner class with no mapping of its own moves with its outer class
+    private static Remapper remapper(Map<String, String> names) {
+        return new Remapper() {
+            @Override
+            public String map(String name) {
+                String ret = names.get(name);
+                if (ret != null)
+                    return ret;
+                int idx = name.lastIndexOf('$');
+                return idx == -1 ? name : map(name.substring(0, idx)) + name.substring(idx);
+            }
+        };
+    }
+
+    /**
+     * @param sets The sets to chain, in order, each mapping from the names the one before it maps to
+     * @return A new set mapping from the first set's obfuscated names to the last set's deobfuscated names
+     */
+    public static MappingSet compose(List<MappingSet> sets, ForkJoinPool pool) {
+        MappingSet ret = sets.get(0);
+        for (int x = 1; x < sets.size(); x++)
+            ret = new MappingComposer(ret, sets.get(x)).compose(pool);
+        return ret;
+    }
+
+    private MappingSet compose(ForkJoinPool pool) {
+        List<ClassPlan> plans = pool.submit(() -> {
+            List<ClassPlan> ret = first.getTopLevelClassMappings().parallelStream()
+                .map(cls -> plan(cls.getObfuscatedName(), cls, second.getTopLevelClassMapping(cls.getDeobfuscatedName()).orElse(null)))
+                .collect(Collectors.toList());
+            // Classes only the second set maps, which the first leaves alone
+            ret.addAll(second.getTopLevelClassMappings().parallelStream()
+                .filter(cls -> !middleToObf.containsKey(cls.getObfuscatedName()) && !first.hasTopLevelClassMapping(cls.getObfuscatedName()))
+                .map(cls -> plan(cls.getObfuscatedName(), null, cls))
+                .collect(Collectors.toList()));
+            return ret;
+        }).join();
+
+        MappingSet ret = MappingSet.create();
+        for (ClassPlan plan : plans)
+            plan.apply(ret.getOrCreateTopLevelClassMapping(plan.obf));
+        return ret;
+    }
+
+    /**
+     * @param obf The name in the first set's obfuscated namespace, simple for inner classes
+     * @param a The first set's mapping, null if it doesn't map this class
+     * @param b The second set's mapping, null if it doesn't map this class
+     */
+    private ClassPlan plan(String obf, ClassMapping<?, ?> a, ClassMapping<?, ?> b) {
+        ClassPlan ret = new ClassPlan(obf, b != null ? b.getDeobfuscatedName() : a != null ? a.getDeobfuscatedName() : obf);
+
+        Set<String> fields = new HashSet<>();
+        Set<String> methods = new HashSet<>();
+        if (a != null) {
+            for (FieldMapping fld : a.getFieldMappings()) {
+                Optional<FieldMapping> bfld = b == null ? Optional.empty() : b.getFieldMapping(fld.getDeobfuscatedName());
+                fields.add(fld.getDeobfuscatedName());
+                ret.fields.add(new String[] { fld.getObfuscatedName(), fld.getType().map(Object::toString).orElse(null),
+                    bfld.map(FieldMapping::getDeobfuscatedName).orElse(fld.getDeobfuscatedName()) });
+            }
+            for (MethodMapping mtd : a.getMethodMappings()) {
+                String desc = toMiddle.mapMethodDesc(mtd.getObfuscatedDescriptor());
+                Optional<MethodMapping> bmtd = b == null ? Optional.empty() : b.getMethodMapping(MethodSignature.of(mtd.getDeobfuscatedName(), desc));
+                methods.add(mtd.getDeobfuscatedName() + desc);
+                MethodPlan plan = new MethodPlan(mtd.getObfuscatedName(), mtd.getObfuscatedDescriptor(), bmtd.map(MethodMapping::getDeobfuscatedName).orElse(mtd.getDeobfuscatedName()));
+                addParams(plan, mtd);
+                bmtd.ifPresent(m -> addParams(plan, m));
+                ret.methods.add(plan);
+            }
+        }
+
+        Set<String> inners = new HashSet<>();
+        if (a != null) {
+            for (InnerClassMapping inner : a.getInnerClassMappings()) {
+                inners.add(inner.getDeobfuscatedName());
+                ret.inners.add(plan(inner.getObfuscatedName(), inner, b == null ? null : b.getInnerClassMapping(inner.getDeobfuscatedName()).orElse(null)));
+            }
+        }
+
+        if (b != null) {
+            for (FieldMapping fld : b.getFieldMappings()) {
+                if (!fields.contains(fld.getObfuscatedName()) && (a == null || !a.getFieldMapping(fld.getObfuscatedName()).isPresent()))
+                    ret.fields.add(new String[] { fld.getObfuscatedName(), fld.getType().map(t -> toObf.mapDesc(t.toString())).orElse(null), fld.getDeobfuscatedName() });
+            }
+            for (MethodMapping mtd : b.getMethodMappings()) {
+                if (methods.contains(mtd.getObfuscatedName() + mtd.getObfuscatedDescriptor()))
+                    continue;
+                String desc = toObf.mapMethodDesc(mtd.getObfuscatedDescriptor());
+                if (a != null && a.getMethodMapping(MethodSignature.of(mtd.getObfuscatedName(), desc)).isPresent())
+                    continue; // Renamed by the first set, so this is a different method that happens to share the name
+                MethodPlan plan = new MethodPlan(mtd.getObfuscatedName(), desc, mtd.getDeobfuscatedName());
+                addParams(plan, mtd);
+                ret.methods.add(plan);
+            }
+            for (InnerClassMapping inner : b.getInnerClassMappings()) {
+                if (!inners.contains(inner.getObfuscatedName()) && (a == null || !a.getInnerClassMapping(inner.getObfuscatedName()).isPresent()))
+                    ret.inners.add(plan(inner.getObfuscatedName(), null, inner));
+            }
+        }
+        return ret;
+    }
+
+    private static void addParams(MethodPlan plan, MethodMapping mtd) {
+        for (MethodParameterMapping param : mtd.getParameterMappings())
+            plan.params.put(param.getIndex(), param.getDeobfuscatedName());
+    }
+
+    private static class ClassPlan {
+        private final String obf, deobf;
+        private final List<String[]> fields = new ArrayList<>(); // obf name, obf descriptor or null, deobf name
+        private final List<MethodPlan> methods = new ArrayList<>();
+        private final List<ClassPlan> inners = new ArrayList<>();
+
+        private ClassPlan(String obf, String deobf) {
+            this.obf = obf;
+            this.deobf = deobf;
+        }
+
+        private void apply(ClassMapping<?, ?> cls) {
+            cls.setDeobfuscatedName(deobf);
+            for (String[] fld : fields)
+                (fld[1] == null ? cls.getOrCreateFieldMapping(fld[0]) : cls.getOrCreateFieldMapping(fld[0], fld[1])).setDeobfuscatedName(fld[2]);
+            for (MethodPlan mtd : methods) {
+                MethodMapping mapping = cls.getOrCreateMethodMapping(mtd.obf, mtd.desc).setDeobfuscatedName(mtd.deobf);
+                for (Map.Entry<Integer, String> param : mtd.params.entrySet())
+                    mapping.getOrCreateParameterMapping(param.getKey()).setDeobfuscatedName(param.getValue());
+            }
+            for (ClassPlan inner : inners)
+                inner.apply(cls.getOrCreateInnerClassMapping(inner.obf));
+        }
+    }
+
+    private static class MethodPlan {
+        private final String obf, desc, deobf;
+        private final Map<Integer, String> params = new HashMap<>();
+
+        private MethodPlan(String obf, String desc, String deobf) {
+            this.obf = obf;
+            this.desc = desc;
+            this.deobf = deobf;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package net.minecraftforge.lex;
+
+import java.util.ArrayList;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.FieldMapping;
+import org.cadixdev.lorenz.model.InnerClassMapping;
+import org.cadixdev.lorenz.model.MethodMapping;
+import org.cadixdev.lorenz.model.MethodParameterMapping;
+
+/*
+ * Copies a MappingSet by walking its model, so each jar can complete a copy of its own without the members one jar's
+ * classes inherit ending up in the next jar's. Much cheaper than writing the set out and reading it back, nothing is
+ * parsed and the names are shared with the original.
+ */
+public class MappingCopier {
+    private int size = 0;
+
+    /**
+     * @param mappings The mappings to copy, only read
+     */
+    public MappingSet copy(MappingSet mappings) {
+        MappingSet ret = MappingSet.create();
+        for (ClassMapping<?, ?> cls : new ArrayList<>(mappings.getTopLevelClassMappings()))
+            copy(cls, ret.getOrCreateTopLevelClassMapping(cls.getObfuscatedName()));
+        return ret;
+    }
+
+    private void copy(ClassMapping<?, ?> from, ClassMapping<?, ?> to) {
+        size++;
+        to.setDeobfuscatedName(from.getDeobfuscatedName());
+
+        for (FieldMapping fld : from.getFieldMappings()) {
+            size++;
+            to.getOrCreateFieldMapping(fld.getSignature()).setDeobfuscatedName(fld.getDeobfuscatedName());
+        }
+
+        for (MethodMapping mtd : from.getMethodMappings()) {
+            size++;
+            MethodMapping copy = to.getOrCreateMethodMapping(mtd.getSignature()).setDeobfuscatedName(mtd.getDeobfuscatedName());
+            for (MethodParameterMapping param : mtd.getParameterMappings()) {
+                size++;
+                copy.getOrCreateParameterMapping(param.getIndex()).setDeobfuscatedName(param.getDeobfuscatedName());
+            }
+        }
+
+        for (InnerClassMapping inner : from.getInnerClassMappings())
+            copy(inner, to.getOrCreateInnerClassMapping(inner.getObfuscatedName()));
+    }
+
+    /**
+     * @return The number of classes, fields, methods and parameters copied so far
+     */
+    public int size() {
+        return size;
+    }
+}
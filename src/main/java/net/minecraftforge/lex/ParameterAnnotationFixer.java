@@ -3,172 +3,277 @@
 import static org.objectweb.asm.Opcodes.*;
 
 import java.util.Arrays;
-import java.util.List;
 import org.cadixdev.bombe.jar.JarClassEntry;
 import org.cadixdev.bombe.jar.JarEntryTransformer;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.Attribute;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
-import org.objectweb.asm.tree.AnnotationNode;
-import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.InnerClassNode;
-import org.objectweb.asm.tree.MethodNode;
 
-public class ParameterAnnotationFixer implements JarEntryTransformer {
+public class ParameterAnnotationFixer implements JarEntryTransformer, ClassStage {
     @Override
     public JarClassEntry transform(final JarClassEntry entry) {
         final ClassReader reader = new ClassReader(entry.getContents());
+        final Log.Buffer log = Log.buffer();
+        // Most classes are neither enums nor inner classes, don't bother reading them at all
+        final Type[] syntheticParams = getExpectedSyntheticParams(reader.getClassName(), reader.getAccess(), findInnerClass(reader), log);
+        if (syntheticParams == null) {
+            log.flush();
+            return entry;
+        }
+
         final ClassWriter writer = new ClassWriter(reader, 0);
-        final ClassNode node = new ClassNode();
-        reader.accept(new Visitor(node), 0);
-        node.accept(writer);
+        reader.accept(new Visitor(writer, log, syntheticParams), 0);
         return new JarClassEntry(entry.getName(), entry.getTime(), writer.toByteArray());
     }
 
+    @Override
+    public ClassVisitor wrap(ClassVisitor next) {
+        return new Visitor(next, Log.buffer(), null);
+    }
+
+    /**
+     * Finds this class's own entry in the InnerClasses attribute straight from the class file,
+     * skipping over the fields and methods without parsing them.
+     */
+    private static InnerClassNode findInnerClass(ClassReader reader) {
+        char[] buf = new char[reader.getMaxStringLength()];
+        int offset = reader.header + 6;
+        offset += 2 + reader.readUnsignedShort(offset) * 2; // interfaces
+        for (int members = 0; members < 2; members++) { // fields, then methods
+            int count = reader.readUnsignedShort(offset);
+            offset += 2;
+            for (; count > 0; count--)
+                offset = skipAttributes(reader, offset + 6);
+        }
+
+        int count = reader.readUnsignedShort(offset);
+        offset += 2;
+        for (; count > 0; count--) {
+            String name = reader.readUTF8(offset, buf);
+            int length = reader.readInt(offset + 2);
+            offset += 6;
+            if ("InnerClasses".equals(name)) {
+                for (int x = reader.readUnsignedShort(offset), pos = offset + 2; x > 0; x--, pos += 8) {
+                    if (reader.getClassName().equals(reader.readClass(pos, buf)))
+                        return new InnerClassNode(reader.readClass(pos, buf), reader.readClass(pos + 2, buf), reader.readUTF8(pos + 4, buf), reader.readUnsignedShort(pos + 6));
+                }
+                return null;
+            }
+            offset += length;
+        }
+        return null;
+    }
+
+    private static int skipAttributes(ClassReader reader, int offset) {
+        int pos = offset + 2;
+        for (int x = reader.readUnsignedShort(offset); x > 0; x--)
+            pos += 6 + reader.readInt(pos + 2);
+        return pos;
+    }
+
+    /**
+    * Checks if the given class might have synthetic parameters in the
+    * constructor. There are two cases where this might happen:
+    * <ol>
+    * <li>If the given class is an inner class, the first parameter is the
+    * instance of the outer class.</li>
+    * <li>If the given class is an enum, the first parameter is the enum
+    * constant name and the second parameter is its ordinal.</li>
+    * </ol>
+    *
+    * @param info The class's own entry in its InnerClasses attribute, may be null
+    * @param log Where to explain the decision
+    * @return An array of types for synthetic parameters if the class can have
+    *         synthetic parameters, otherwise null.
+    */
+    private static Type[] getExpectedSyntheticParams(String name, int access, InnerClassNode info, Log.Buffer log) {
+        // Check for enum
+        // http://hg.openjdk.java.net/jdk8/jdk8/langtools/file/1ff9d5118aae/src/share/classes/com/sun/tools/javac/comp/Lower.java#l2866
+        if ((access & ACC_ENUM) != 0) {
+            log.debug("  Considering " + name + " for extra parameter annotations as it is an enum");
+            return new Type[] { Type.getObjectType("java/lang/String"), Type.INT_TYPE };
+        }
+
+        // Check for inner class
+        // http://hg.openjdk.java.net/jdk8/jdk8/langtools/file/1ff9d5118aae/src/share/classes/com/sun/tools/javac/code/Symbol.java#l398
+        if (info == null) {
+            log.debug("  Not considering " + name + " for extra parameter annotations as it is not an inner class");
+            return null; // It's not an inner class
+        }
+        if ((info.access & (ACC_STATIC | ACC_INTERFACE)) != 0) {
+            log.debug("  Not considering " + name + " for extra parameter annotations as is an interface or static");
+            return null; // It's static or can't have a constructor
+        }
+
+        // http://hg.openjdk.java.net/jdk8/jdk8/langtools/file/1ff9d5118aae/src/share/classes/com/sun/tools/javac/jvm/ClassReader.java#l2011
+        if (info.innerName == null) {
+            log.debug("  Not considering " + name + " for extra parameter annotations as it is annonymous");
+            return null; // It's an anonymous class
+        }
+
+        log.debug("  Considering " + name + " for extra parameter annotations as it is an inner class of " + info.outerName);
+        return new Type[] { Type.getObjectType(info.outerName) };
+    }
+
+    private static boolean beginsWith(Type[] values, Type[] prefix) {
+        if (values.length < prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (!values[i].equals(prefix[i]))
+                return false;
+        }
+        return true;
+    }
+
     private static class Visitor extends ClassVisitor {
-        private final ClassNode node;
+        private String name;
+        private int access;
+        private InnerClassNode info;
+        private final Log.Buffer log;
+        private Type[] syntheticParams;
+        private boolean checked = false;
 
-        public Visitor(ClassNode cn) {
-            super(Opcodes.ASM9, cn);
-            this.node = cn;
+        /**
+         * @param syntheticParams The result of getExpectedSyntheticParams if it's already known, otherwise null
+         */
+        public Visitor(ClassVisitor next, Log.Buffer log, Type[] syntheticParams) {
+            super(Opcodes.ASM9, next);
+            this.log = log;
+            this.syntheticParams = syntheticParams;
+            this.checked = syntheticParams != null;
         }
 
-        private void debug(String message) {
-            //System.out.println(message);
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            this.name = name;
+            this.access = access;
+            super.visit(version, access, name, signature, superName, interfaces);
         }
 
-        private void log(String message) {
-            System.out.println(message);
+        @Override
+        public void visitInnerClass(String name, String outerName, String innerName, int access) {
+            if (name.equals(this.name))
+                this.info = new InnerClassNode(name, outerName, innerName, access);
+            super.visitInnerClass(name, outerName, innerName, access);
+        }
+
+        // InnerClasses is always visited before the methods
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            MethodVisitor ret = super.visitMethod(access, name, descriptor, signature, exceptions);
+            if (ret == null || !name.equals("<init>"))
+                return ret;
+
+            if (!checked) {
+                syntheticParams = getExpectedSyntheticParams(this.name, this.access, this.info, log);
+                checked = true;
+            }
+            if (syntheticParams == null)
+                return ret;
+
+            String methodInfo = name + descriptor + " in " + this.name;
+            Type[] params = Type.getArgumentTypes(descriptor);
+            if (!beginsWith(params, syntheticParams)) {
+                log.log("Unexpected lack of synthetic args to the constructor: expected " + Arrays.toString(syntheticParams) + " at the start of " + methodInfo);
+                return ret;
+            }
+            return new ConstructorVisitor(ret, log, methodInfo, params.length, syntheticParams.length);
         }
 
         @Override
         public void visitEnd() {
+            log.flush();
             super.visitEnd();
+        }
+    }
 
-            Type[] syntheticParams = getExpectedSyntheticParams(node);
-            if (syntheticParams != null) {
-                for (MethodNode mn : node.methods) {
-                    if (mn.name.equals("<init>"))
-                        processConstructor(node, mn, syntheticParams);
-                }
-            }
+    /**
+     * Removes the parameter annotations for the synthetic parameters, after their existence has already been checked.
+     *
+     * The class used to be read into a tree first, where ASM sizes the annotation arrays by the descriptor rather than by
+     * the attribute, so whenever a constructor has any parameter annotations the first entries are dropped and the
+     * annotable count becomes the number of real parameters. This reproduces that as the events stream past: the count
+     * from the attribute is held back until we know whether any annotations follow it.
+     */
+    private static class ConstructorVisitor extends MethodVisitor {
+        private final Log.Buffer log;
+        private final String methodInfo;
+        private final int numParams;
+        private final int numSynthetic;
+        private final int[] pending = { 0, 0 }; // Annotable parameter count not yet passed on, indexed by visible
+        private final boolean[] started = { false, false };
+
+        private ConstructorVisitor(MethodVisitor next, Log.Buffer log, String methodInfo, int numParams, int numSynthetic) {
+            super(Opcodes.ASM9, next);
+            this.log = log;
+            this.methodInfo = methodInfo;
+            this.numParams = numParams;
+            this.numSynthetic = numSynthetic;
         }
 
-        /**
-        * Checks if the given class might have synthetic parameters in the
-        * constructor. There are two cases where this might happen:
-        * <ol>
-        * <li>If the given class is an inner class, the first parameter is the
-        * instance of the outer class.</li>
-        * <li>If the given class is an enum, the first parameter is the enum
-        * constant name and the second parameter is its ordinal.</li>
-        * </ol>
-        *
-        * @return An array of types for synthetic parameters if the class can have
-        *         synthetic parameters, otherwise null.
-        */
-        private Type[] getExpectedSyntheticParams(ClassNode cls) {
-            // Check for enum
-            // http://hg.openjdk.java.net/jdk8/jdk8/langtools/file/1ff9d5118aae/src/share/classes/com/sun/tools/javac/comp/Lower.java#l2866
-            if ((cls.access & ACC_ENUM) != 0) {
-                debug("  Considering " + cls.name + " for extra parameter annotations as it is an enum");
-                return new Type[] { Type.getObjectType("java/lang/String"), Type.INT_TYPE };
-            }
+        private static int idx(boolean visible) {
+            return visible ? 1 : 0;
+        }
 
-            // Check for inner class
-            InnerClassNode info = null;
-            for (InnerClassNode node : cls.innerClasses) { // note: cls.innerClasses is never null
-                if (node.name.equals(cls.name)) {
-                    info = node;
-                    break;
-                }
-            }
-            // http://hg.openjdk.java.net/jdk8/jdk8/langtools/file/1ff9d5118aae/src/share/classes/com/sun/tools/javac/code/Symbol.java#l398
-            if (info == null) {
-                debug("  Not considering " + cls.name + " for extra parameter annotations as it is not an inner class");
-                return null; // It's not an inner class
-            }
-            if ((info.access & (ACC_STATIC | ACC_INTERFACE)) != 0) {
-                debug("  Not considering " + cls.name + " for extra parameter annotations as is an interface or static");
-                return null; // It's static or can't have a constructor
-            }
+        private static String attribute(boolean visible) {
+            return visible ? "RuntimeVisibleParameterAnnotations" : "RuntimeInvisibleParameterAnnotations";
+        }
 
-            // http://hg.openjdk.java.net/jdk8/jdk8/langtools/file/1ff9d5118aae/src/share/classes/com/sun/tools/javac/jvm/ClassReader.java#l2011
-            if (info.innerName == null) {
-                debug("  Not considering " + cls.name + " for extra parameter annotations as it is annonymous");
-                return null; // It's an anonymous class
+        private void flush(boolean visible) {
+            int count = pending[idx(visible)];
+            if (count > 0) {
+                log.debug("    " + methodInfo + " has an empty " + attribute(visible) + " attribute");
+                super.visitAnnotableParameterCount(count, visible);
             }
+            pending[idx(visible)] = 0;
+        }
 
-            debug("  Considering " + cls.name + " for extra parameter annotations as it is an inner class of " + info.outerName);
-            return new Type[] { Type.getObjectType(info.outerName) };
+        @Override
+        public void visitAnnotableParameterCount(int parameterCount, boolean visible) {
+            flush(!visible);
+            pending[idx(visible)] = parameterCount;
         }
 
-        /**
-        * Removes the parameter annotations for the given synthetic parameters,
-        * if there are parameter annotations and the synthetic parameters exist.
-        */
-        private void processConstructor(ClassNode cls, MethodNode mn, Type[] syntheticParams) {
-            String methodInfo = mn.name + mn.desc + " in " + cls.name;
-            Type[] params = Type.getArgumentTypes(mn.desc);
-
-            if (beginsWith(params, syntheticParams)) {
-                mn.visibleParameterAnnotations = process(methodInfo, "RuntimeVisibleParameterAnnotations", params.length, syntheticParams.length, mn.visibleParameterAnnotations);
-                mn.invisibleParameterAnnotations = process(methodInfo, "RuntimeInvisibleParameterAnnotations", params.length, syntheticParams.length, mn.invisibleParameterAnnotations);
-                // ASM uses this value, not the length of the array
-                // Note that this was added in ASM 6.1
-                if (mn.visibleParameterAnnotations != null)
-                    mn.visibleAnnotableParameterCount = mn.visibleParameterAnnotations.length;
-                if (mn.invisibleParameterAnnotations != null)
-                    mn.invisibleAnnotableParameterCount = mn.invisibleParameterAnnotations.length;
-            } else
-                log("Unexpected lack of synthetic args to the constructor: expected " + Arrays.toString(syntheticParams) + " at the start of " + methodInfo);
-        }
-
-        private boolean beginsWith(Type[] values, Type[] prefix) {
-            if (values.length < prefix.length)
-                return false;
-            for (int i = 0; i < prefix.length; i++) {
-                if (!values[i].equals(prefix[i]))
-                    return false;
+        @Override
+        public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible) {
+            if (!started[idx(visible)]) {
+                started[idx(visible)] = true;
+                pending[idx(visible)] = 0;
+                flush(!visible);
+                log.log("Found extra " + attribute(visible) + " entries in " + methodInfo + ": removing " + numSynthetic);
+                // ASM uses this value, not the highest index visited
+                super.visitAnnotableParameterCount(numParams - numSynthetic, visible);
             }
-            return true;
+            if (parameter < numSynthetic)
+                return null;
+            return super.visitParameterAnnotation(parameter - numSynthetic, descriptor, visible);
         }
 
-        /**
-        * Removes annotation nodes corresponding to synthetic parameters, after
-        * the existence of synthetic parameters has already been checked.
-        *
-        * @param methodInfo
-        *            A description of the method, for logging
-        * @param attributeName
-        *            The name of the attribute, for logging
-        * @param numParams
-        *            The number of parameters in the method
-        * @param numSynthetic
-        *            The number of synthetic parameters (should not be 0)
-        * @param annotations
-        *            The current array of annotation nodes, may be null
-        * @return The new array of annotation nodes, may be null
-        */
-        private List<AnnotationNode>[] process(String methodInfo, String attributeName, int numParams, int numSynthetic, List<AnnotationNode>[] annotations) {
-            if (annotations == null) {
-                debug("    " + methodInfo + " does not have a " + attributeName + " attribute");
-                return null;
-            }
+        @Override
+        public void visitAttribute(Attribute attribute) {
+            flush(true);
+            flush(false);
+            super.visitAttribute(attribute);
+        }
 
-            int numAnnotations = annotations.length;
-            if (numParams == numAnnotations) {
-                log("Found extra " + attributeName + " entries in " + methodInfo + ": removing " + numSynthetic);
-                return Arrays.copyOfRange(annotations, numSynthetic, numAnnotations);
-            } else if (numParams == numAnnotations - numSynthetic) {
-                debug("Number of " + attributeName + " entries in " + methodInfo + " is already as we want");
-                return annotations;
-            } else {
-                log("Unexpected number of " + attributeName + " entries in " + methodInfo + ": " + numAnnotations);
-                return annotations;
-            }
+        @Override
+        public void visitCode() {
+            flush(true);
+            flush(false);
+            super.visitCode();
+        }
+
+        @Override
+        public void visitEnd() {
+            flush(true);
+            flush(false);
+            super.visitEnd();
         }
     }
 }
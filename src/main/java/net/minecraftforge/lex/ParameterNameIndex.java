@@ -0,0 +1,129 @@
+package net.minecraftforge.lex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.cadixdev.bombe.analysis.InheritanceProvider.ClassInfo;
+import org.cadixdev.bombe.analysis.InheritanceType;
+import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.InnerClassMapping;
+import org.cadixdev.lorenz.model.MethodMapping;
+import org.cadixdev.lorenz.model.MethodParameterMapping;
+
+/**
+ * Read only lookup of parameter names, keyed by obfuscated owner, method name and descriptor, and then by local variable slot.
+ * Everything in the MappingSet is completed and indexed up front, so lookups from the worker threads are plain map reads
+ * that don't touch the MappingSet. When the MappingCompleter ran first the input jar's own classes are in there too.
+ * Any other owner gets the names its parents have, found by walking up the hierarchy the same way completing it would
+ * have copied them down, without creating mappings for it.
+ */
+class ParameterNameIndex {
+    private static final String[] NONE = new String[0]; // Cached misses, compared by identity
+
+    private final InheritanceProvider inheritanceProvider;
+    // owner -> method name -> method descriptor -> names indexed by slot, never written after build
+    private final Map<String, Map<String, Map<String, String[]>>> classes = new HashMap<>();
+    // Methods of owners that aren't indexed, by owner + '.' + name + descriptor
+    private final Map<String, String[]> inherited = new ConcurrentHashMap<>();
+
+    private ParameterNameIndex(InheritanceProvider inheritanceProvider) {
+        this.inheritanceProvider = inheritanceProvider;
+    }
+
+    static ParameterNameIndex build(MappingSet mappings, InheritanceProvider inheritanceProvider) {
+        ParameterNameIndex ret = new ParameterNameIndex(inheritanceProvider);
+        // Copied, completing a class creates mappings for its parents
+        for (ClassMapping<?, ?> cls : new ArrayList<>(mappings.getTopLevelClassMappings()))
+            ret.add(cls);
+        return ret;
+    }
+
+    private void add(ClassMapping<?, ?> cls) {
+        cls.complete(this.inheritanceProvider);
+        this.classes.put(cls.getFullObfuscatedName(), index(cls));
+        for (InnerClassMapping inner : new ArrayList<>(cls.getInnerClassMappings()))
+            add(inner);
+    }
+
+    private static Map<String, Map<String, String[]>> index(ClassMapping<?, ?> cls) {
+        Map<String, Map<String, String[]>> ret = null;
+        for (MethodMapping mtd : cls.getMethodMappings()) {
+            if (mtd.getParameterMappings().isEmpty())
+                continue;
+
+            int max = -1;
+            for (MethodParameterMapping param : mtd.getParameterMappings())
+                max = Math.max(max, param.getIndex());
+            String[] names = new String[max + 1];
+            for (MethodParameterMapping param : mtd.getParameterMappings())
+                names[param.getIndex()] = param.getDeobfuscatedName();
+
+            if (ret == null)
+                ret = new HashMap<>();
+            ret.computeIfAbsent(mtd.getObfuscatedName(), k -> new HashMap<>()).put(mtd.getSignature().getDescriptor().toString(), names);
+        }
+        return ret == null ? Collections.emptyMap() : ret;
+    }
+
+    /**
+     * @return The mapped name of the parameter in the given slot, or null if there is none
+     */
+    String get(String owner, String methodName, String methodDescriptor, int index) {
+        String[] names = resolve(owner, methodName, methodDescriptor);
+        return names == null || index < 0 || index >= names.length ? null : names[index];
+    }
+
+    private String[] resolve(String owner, String name, String descriptor) {
+        Map<String, Map<String, String[]>> methods = this.classes.get(owner);
+        if (methods != null) {
+            Map<String, String[]> descs = methods.get(name);
+            return descs == null ? null : descs.get(descriptor);
+        }
+        if (name.startsWith("<")) // <init> and <clinit> aren't inherited
+            return null;
+
+        String key = owner + '.' + name + descriptor;
+        String[] ret = this.inherited.get(key);
+        if (ret == null) {
+            ret = fromParents(owner, name, descriptor);
+            this.inherited.putIfAbsent(key, ret == null ? NONE : ret);
+        }
+        return ret == NONE ? null : ret;
+    }
+
+    private String[] fromParents(String owner, String name, String descriptor) {
+        Optional<ClassInfo> info = this.inheritanceProvider.provide(owner);
+        if (!info.isPresent())
+            return null;
+
+        ClassInfo child = info.get();
+        String[] ret = fromParent(child, child.getSuperName(), name, descriptor);
+        for (int x = 0; ret == null && x < child.getInterfaces().size(); x++)
+            ret = fromParent(child, child.getInterfaces().get(x), name, descriptor);
+        return ret;
+    }
+
+    private String[] fromParent(ClassInfo child, String parentName, String name, String descriptor) {
+        if (parentName == null)
+            return null;
+        // A parent that declares it privately, or package private elsewhere, hides it. One that doesn't declare it at all may still inherit it.
+        Optional<ClassInfo> parent = this.inheritanceProvider.provide(parentName);
+        if (parent.isPresent()) {
+            InheritanceType type = parent.get().getMethods().get(MethodSignature.of(name, descriptor));
+            if (type == InheritanceType.NONE || (type == InheritanceType.PACKAGE_PRIVATE && !samePackage(child.getName(), parentName)))
+                return null;
+        }
+        return resolve(parentName, name, descriptor);
+    }
+
+    private static boolean samePackage(String a, String b) {
+        int idx = a.lastIndexOf('/');
+        return idx == b.lastIndexOf('/') && a.regionMatches(0, b, 0, Math.max(idx, 0));
+    }
+}
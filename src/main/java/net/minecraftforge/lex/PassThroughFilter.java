@@ -0,0 +1,188 @@
+package net.minecraftforge.lex;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.FieldMapping;
+import org.cadixdev.lorenz.model.InnerClassMapping;
+import org.cadixdev.lorenz.model.MethodMapping;
+import org.objectweb.asm.Opcodes;
+
+/*
+ * Decides from the raw constant pool whether a class can be copied as is, without a full ASM read and write.
+ * Every UTF8 entry is checked against the obfuscated names of everything the mappings change: the whole string for names,
+ * and every 'L...;' run inside it for descriptors and signatures. Anything odd counts as a hit, so a false positive just
+ * means the class takes the normal path.
+ */
+class PassThroughFilter {
+    private static final char SNOWMAN = 0x2603;
+
+    private final Set<String> names = new HashSet<>();
+
+    private PassThroughFilter() {}
+
+    // Must be built after the mappings are completed, so inherited members are in there too.
+    static PassThroughFilter build(MappingSet mappings) {
+        PassThroughFilter ret = new PassThroughFilter();
+        for (ClassMapping<?, ?> cls : new ArrayList<>(mappings.getTopLevelClassMappings()))
+            ret.add(cls, false);
+        return ret;
+    }
+
+    /*
+     * For remapping deobfuscated names back, the same names from the other side. Inherited members don't need completing
+     * first here, the constant pool holds the deobfuscated name whichever class it's referenced through, and parameters
+     * aren't renamed going back.
+     */
+    static PassThroughFilter buildReverse(MappingSet mappings) {
+        PassThroughFilter ret = new PassThroughFilter();
+        for (ClassMapping<?, ?> cls : new ArrayList<>(mappings.getTopLevelClassMappings()))
+            ret.add(cls, true);
+        return ret;
+    }
+
+    private void add(ClassMapping<?, ?> cls, boolean reverse) {
+        String name = reverse ? cls.getFullDeobfuscatedName() : cls.getFullObfuscatedName();
+        if (!cls.getFullObfuscatedName().equals(cls.getFullDeobfuscatedName())) {
+            names.add(name);
+            // Inner classes show up in signatures as 'Louter<...>.inner;'
+            for (int idx = name.indexOf('$'); idx != -1; idx = name.indexOf('$', idx + 1))
+                names.add(name.substring(0, idx));
+        }
+        for (FieldMapping fld : cls.getFieldMappings()) {
+            if (fld.hasDeobfuscatedName())
+                names.add(reverse ? fld.getDeobfuscatedName() : fld.getObfuscatedName());
+        }
+        for (MethodMapping mtd : cls.getMethodMappings()) {
+            if (reverse ? mtd.hasDeobfuscatedName() : mtd.hasDeobfuscatedName() || !mtd.getParameterMappings().isEmpty())
+                names.add(reverse ? mtd.getDeobfuscatedName() : mtd.getObfuscatedName());
+        }
+        for (InnerClassMapping inner : new ArrayList<>(cls.getInnerClassMappings()))
+            add(inner, reverse);
+    }
+
+    /**
+     * @param abstractMethods Also count abstract and native methods with parameters as a hit, for the FernFlower metadata
+     * @return True if the class references nothing that is mapped, so remapping it would change nothing
+     */
+    boolean canSkip(byte[] data, boolean abstractMethods) {
+        try {
+            return !scan(data, abstractMethods);
+        } catch (IndexOutOfBoundsException e) {
+            return false; // Malformed, let ASM deal with it
+        }
+    }
+
+    private boolean scan(byte[] data, boolean abstractMethods) {
+        if (data.length < 10 || u4(data, 0) != 0xCAFEBABE)
+            return true;
+
+        int count = u2(data, 8);
+        int[] utf8 = new int[count];
+        char[] buf = new char[64];
+        int offset = 10;
+        for (int x = 1; x < count; x++) {
+            switch (data[offset]) {
+                case 1: // Utf8
+                    int len = u2(data, offset + 1);
+                    if (len > buf.length)
+                        buf = new char[len];
+                    utf8[x] = offset;
+                    if (hit(buf, decode(data, offset + 3, len, buf)))
+                        return true;
+                    offset += 3 + len;
+                    break;
+                case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18: // Integer, Float, Field/Method/InterfaceMethod ref, NameAndType, (Invoke)Dynamic
+                    offset += 5;
+                    break;
+                case 5: case 6: // Long, Double, take two slots
+                    offset += 9;
+                    x++;
+                    break;
+                case 7: case 8: case 16: case 19: case 20: // Class, String, MethodType, Module, Package
+                    offset += 3;
+                    break;
+                case 15: // MethodHandle
+                    offset += 4;
+                    break;
+                default:
+                    return true;
+            }
+        }
+
+        return abstractMethods && hasAbstractMethods(data, offset, utf8);
+    }
+
+    private boolean hit(char[] buf, int len) {
+        if (len == 0)
+            return false;
+        if (buf[0] == SNOWMAN || names.contains(new String(buf, 0, len)))
+            return true;
+
+        for (int x = 0; x < len; x++) {
+            if (buf[x] != 'L')
+                continue;
+            int end = x + 1;
+            while (end < len && buf[end] != ';' && buf[end] != '<')
+                end++;
+            if (end > x + 1 && names.contains(new String(buf, x + 1, end - x - 1)))
+                return true;
+        }
+        return false;
+    }
+
+    // Abstract and native methods with parameters get their names written to the FernFlower metadata even when unmapped
+    private static boolean hasAbstractMethods(byte[] data, int offset, int[] utf8) {
+        offset += 6; // access, this, super
+        offset += 2 + u2(data, offset) * 2;
+        offset = skipMembers(data, offset);
+
+        for (int x = u2(data, offset), pos = offset + 2; x > 0; x--) {
+            int access = u2(data, pos);
+            int desc = utf8[u2(data, pos + 4)];
+            if ((access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0 && !(u2(data, desc + 1) >= 2 && data[desc + 3] == '(' && data[desc + 4] == ')'))
+                return true;
+            pos = skipAttributes(data, pos + 6);
+        }
+        return false;
+    }
+
+    private static int skipMembers(byte[] data, int offset) {
+        int pos = offset + 2;
+        for (int x = u2(data, offset); x > 0; x--)
+            pos = skipAttributes(data, pos + 6);
+        return pos;
+    }
+
+    private static int skipAttributes(byte[] data, int offset) {
+        int pos = offset + 2;
+        for (int x = u2(data, offset); x > 0; x--)
+            pos += 6 + u4(data, pos + 2);
+        return pos;
+    }
+
+    // Modified UTF-8, same as ClassReader.readUtf
+    private static int decode(byte[] data, int offset, int len, char[] buf) {
+        int end = offset + len, ret = 0;
+        while (offset < end) {
+            int c = data[offset++];
+            if ((c & 0x80) == 0)
+                buf[ret++] = (char)(c & 0x7F);
+            else if ((c & 0xE0) == 0xC0)
+                buf[ret++] = (char)(((c & 0x1F) << 6) + (data[offset++] & 0x3F));
+            else
+                buf[ret++] = (char)(((c & 0xF) << 12) + ((data[offset++] & 0x3F) << 6) + (data[offset++] & 0x3F));
+        }
+        return ret;
+    }
+
+    private static int u2(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    private static int u4(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16) | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+}
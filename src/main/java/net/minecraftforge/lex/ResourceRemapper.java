@@ -0,0 +1,367 @@
+package net.minecraftforge.lex;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import org.cadixdev.bombe.jar.JarEntryTransformer;
+import org.cadixdev.bombe.jar.JarResourceEntry;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.FieldMapping;
+import org.cadixdev.lorenz.model.InnerClassMapping;
+import org.cadixdev.lorenz.model.MethodMapping;
+
+/*
+ * Rewrites the names in text resources such as access transformers, mixin configs and refmaps. Every name the mappings
+ * change goes into one Aho-Corasick automaton over UTF-8 bytes, built once, so a resource is remapped in a single pass
+ * over its bytes however many names there are, without decoding it.
+ *
+ * Classes are matched in both 'a/b/C' and 'a.b.C' form, members by their bare name. A match only counts on a token
+ * boundary, so names inside longer names are left alone. Text has no owner to tell members apart, so a member name is
+ * only rewritten if it maps to the same name in every class, and isn't so short it's likely to be something else.
+ * A class in the default package is just as likely to be a word, so it is only rewritten where it has to be a class:
+ * as 'LC;' or 'LC<' in a descriptor or signature, and in the class column of an access transformer line.
+ */
+public class ResourceRemapper implements JarEntryTransformer {
+    private static final int MIN_MEMBER_LENGTH = 3;
+    private static final byte SLASHED = 0, DOTTED = 1, MEMBER = 2, DESCRIPTOR = 3, AT_CLASS = 4;
+    private static final Pattern AT_ACCESS = Pattern.compile("(public|protected|private|default)([-+]f)?");
+
+    private final Predicate<String> filter;
+
+    // The trie, node 0 is the root. Children other than the root's are a linked list, most nodes only have one or two.
+    private final int[] rootNext = new int[256];
+    private byte[] label = new byte[1024];
+    private int[] firstChild = new int[1024];
+    private int[] sibling = new int[1024];
+    private int[] fail;
+    private int[] output = new int[1024]; // Pattern ending at the node, or -1
+    private int[] dict;                   // Nearest node down the fail links with an output, or -1
+    private int nodes = 1;
+
+    private final List<byte[]> patterns = new ArrayList<>();
+    private final List<byte[]> replacements = new ArrayList<>();
+    private byte[] kinds = new byte[64];
+    private int[] alt = new int[64]; // Next pattern with the same text but another kind, or -1
+
+    private ResourceRemapper(Predicate<String> filter) {
+        this.filter = filter;
+        output[0] = -1;
+    }
+
+    /**
+     * @param mappings The mappings, they aren't kept
+     * @param reverse Whether to rewrite deobfuscated names back to obfuscated ones
+     * @param globs Which resources to rewrite, see {@link #globs(List)}
+     */
+    public static ResourceRemapper build(MappingSet mappings, boolean reverse, List<String> globs) {
+        ResourceRemapper ret = new ResourceRemapper(globs(globs));
+        Map<String, String> members = new HashMap<>();
+        for (ClassMapping<?, ?> cls : new ArrayList<>(mappings.getTopLevelClassMappings()))
+            ret.addClass(cls, reverse, members);
+        members.forEach((from, to) -> {
+            if (to != null && from.length() >= MIN_MEMBER_LENGTH)
+                ret.add(from, to, MEMBER);
+        });
+        ret.link();
+        return ret;
+    }
+
+    private void addClass(ClassMapping<?, ?> cls, boolean reverse, Map<String, String> members) {
+        String obf = cls.getFullObfuscatedName();
+        String deobf = cls.getFullDeobfuscatedName();
+        String from = reverse ? deobf : obf;
+        String to = reverse ? obf : deobf;
+        if (!from.equals(to) && from.indexOf('/') != -1) {
+            add(from, to, SLASHED);
+            add(from.replace('/', '.'), to.replace('/', '.'), DOTTED);
+        } else if (!from.equals(to)) {
+            // The descriptor's 'L' and what follows the name are part of the pattern, so these can't be mistaken for members
+            add('L' + from + ';', 'L' + to + ';', DESCRIPTOR);
+            add('L' + from + '<', 'L' + to + '<', DESCRIPTOR);
+            add('L' + from + '$', 'L' + to + '$', DESCRIPTOR);
+            add(from, to.replace('/', '.'), AT_CLASS);
+        }
+        for (FieldMapping fld : cls.getFieldMappings()) {
+            if (fld.hasDeobfuscatedName())
+                addMember(members, reverse ? fld.getDeobfuscatedName() : fld.getObfuscatedName(), reverse ? fld.getObfuscatedName() : fld.getDeobfuscatedName());
+        }
+        for (MethodMapping mtd : cls.getMethodMappings()) {
+            if (mtd.hasDeobfuscatedName())
+                addMember(members, reverse ? mtd.getDeobfuscatedName() : mtd.getObfuscatedName(), reverse ? mtd.getObfuscatedName() : mtd.getDeobfuscatedName());
+        }
+        for (InnerClassMapping inner : new ArrayList<>(cls.getInnerClassMappings()))
+            addClass(inner, reverse, members);
+    }
+
+    // null marks a name that maps differently depending on the class
+    private static void addMember(Map<String, String> members, String from, String to) {
+        if (from.equals(to) || from.startsWith("<"))
+            return;
+        if (members.containsKey(from) && !to.equals(members.get(from)))
+            members.put(from, null);
+        else
+            members.put(from, to);
+    }
+
+    private void add(String from, String to, byte kind) {
+        byte[] bytes = from.getBytes(StandardCharsets.UTF_8);
+        int node = 0;
+        for (byte b : bytes) {
+            int next = child(node, b);
+            if (next == -1)
+                next = newNode(node, b);
+            node = next;
+        }
+        int last = -1;
+        for (int id = output[node]; id != -1; id = alt[id]) {
+            if (kinds[id] == kind)
+                return; // Same text from two names, the first wins
+            last = id;
+        }
+        int id = patterns.size();
+        patterns.add(bytes);
+        replacements.add(to.getBytes(StandardCharsets.UTF_8));
+        if (id == kinds.length) {
+            kinds = Arrays.copyOf(kinds, id * 2);
+            alt = Arrays.copyOf(alt, id * 2);
+        }
+        kinds[id] = kind;
+        alt[id] = -1;
+        if (last == -1)
+            output[node] = id;
+        else
+            alt[last] = id; // A default package class and a member can share a name
+    }
+
+    private int child(int node, byte b) {
+        if (node == 0) {
+            int ret = rootNext[b & 0xFF];
+            return ret == 0 ? -1 : ret;
+        }
+        for (int c = firstChild[node]; c != 0; c = sibling[c]) {
+            if (label[c] == b)
+                return c;
+        }
+        return -1;
+    }
+
+    private int newNode(int parent, byte b) {
+        if (nodes == label.length) {
+            int size = nodes * 2;
+            label = Arrays.copyOf(label, size);
+            firstChild = Arrays.copyOf(firstChild, size);
+            sibling = Arrays.copyOf(sibling, size);
+            output = Arrays.copyOf(output, size);
+        }
+        int ret = nodes++;
+        label[ret] = b;
+        output[ret] = -1;
+        if (parent == 0) {
+            rootNext[b & 0xFF] = ret;
+        } else {
+            sibling[ret] = firstChild[parent];
+            firstChild[parent] = ret;
+        }
+        return ret;
+    }
+
+    // Breadth first, so every fail link points at a node that is already linked
+    private void link() {
+        fail = new int[nodes];
+        dict = new int[nodes];
+        dict[0] = -1;
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int c : rootNext) {
+            if (c != 0) {
+                dict[c] = -1;
+                queue.add(c);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int c = firstChild[node]; c != 0; c = sibling[c]) {
+                int f = fail[node];
+                int next;
+                while ((next = child(f, label[c])) == -1 && f != 0)
+                    f = fail[f];
+                fail[c] = next == -1 ? 0 : next;
+                dict[c] = output[fail[c]] != -1 ? fail[c] : dict[fail[c]];
+                queue.add(c);
+            }
+        }
+        // Trimmed, nothing is added after this
+        firstChild = Arrays.copyOf(firstChild, nodes);
+        sibling = Arrays.copyOf(sibling, nodes);
+        label = Arrays.copyOf(label, nodes);
+        output = Arrays.copyOf(output, nodes);
+    }
+
+    /**
+     * @return The number of names that can be rewritten
+     */
+    public int size() {
+        return patterns.size();
+    }
+
+    @Override
+    public JarResourceEntry transform(JarResourceEntry entry) {
+        if (!filter.test(entry.getName()))
+            return entry;
+        byte[] data = entry.getContents();
+        byte[] ret = remap(data);
+        return ret == data ? entry : new JarResourceEntry(entry.getName(), entry.getTime(), ret);
+    }
+
+    /**
+     * @return The remapped data, or the same array if nothing changed
+     */
+    public byte[] remap(byte[] data) {
+        // Matches as start, end, pattern, found in order of their end. Overlaps go to the one that starts first, then the longest.
+        int[] matches = new int[48];
+        int count = 0;
+        int state = 0;
+        for (int i = 0; i < data.length; i++) {
+            byte b = data[i];
+            int next;
+            while ((next = child(state, b)) == -1 && state != 0)
+                state = fail[state];
+            state = next == -1 ? 0 : next;
+
+            found:
+            for (int n = output[state] != -1 ? state : dict[state]; n != -1; n = dict[n]) {
+                for (int id = output[n]; id != -1; id = alt[id]) {
+                    int end = i + 1;
+                    int start = end - patterns.get(id).length;
+                    if (!matches(data, start, end, kinds[id]))
+                        continue;
+                    // The longest ending here is the first valid one down the chain
+                    while (count > 0 && matches[count * 3 - 2] > start && start <= matches[count * 3 - 3])
+                        count--;
+                    if (count == 0 || matches[count * 3 - 2] <= start) {
+                        if (count * 3 == matches.length)
+                            matches = Arrays.copyOf(matches, matches.length * 2);
+                        matches[count * 3] = start;
+                        matches[count * 3 + 1] = end;
+                        matches[count * 3 + 2] = id;
+                        count++;
+                    }
+                    break found;
+                }
+            }
+        }
+        if (count == 0)
+            return data;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length + 16 * count);
+        int last = 0;
+        for (int m = 0; m < count; m++) {
+            int start = matches[m * 3];
+            out.write(data, last, start - last);
+            byte[] to = replacements.get(matches[m * 3 + 2]);
+            out.write(to, 0, to.length);
+            last = matches[m * 3 + 1];
+        }
+        out.write(data, last, data.length - last);
+        return out.toByteArray();
+    }
+
+    private static boolean matches(byte[] data, int start, int end, byte kind) {
+        int prev = start == 0 ? -1 : data[start - 1] & 0xFF;
+        int next = end == data.length ? -1 : data[end] & 0xFF;
+        switch (kind) {
+            case SLASHED:
+                // 'La/b/C;' in descriptors and 'La/b/C<' in signatures, otherwise not part of a longer name. Inner classes without a mapping of their own keep '$Inner'.
+                if (prev == 'L' && (next == ';' || next == '<'))
+                    return true;
+                return !isNamePart(prev) && prev != '/' && prev != '.' && (next == '$' || !isNamePart(next)) && next != '/';
+            case DOTTED:
+                return !isNamePart(prev) && prev != '/' && prev != '.' && (next == '$' || !isNamePart(next)) && next != '/';
+            case DESCRIPTOR:
+                return isDescriptorStart(data, start);
+            case AT_CLASS:
+                return isSpace(prev) && (next == -1 || isSpace(next) || next == '\n' || next == '\r' || next == '#') && isAtClassColumn(data, start - 1);
+            default:
+                return !isNamePart(prev) && !isNamePart(next);
+        }
+    }
+
+    // Whether the 'L' at start begins a type, only primitives can come between it and the last non name character
+    private static boolean isDescriptorStart(byte[] data, int start) {
+        int x = start - 1;
+        while (x >= 0 && "BCDFIJSZV".indexOf(data[x]) != -1)
+            x--;
+        if (x < 0)
+            return true;
+        int prev = data[x] & 0xFF;
+        return !isNamePart(prev) && prev != '/' && prev != '.';
+    }
+
+    // Whether only an access modifier comes before the whitespace ending at end, on its line
+    private static boolean isAtClassColumn(byte[] data, int end) {
+        while (end >= 0 && isSpace(data[end]))
+            end--;
+        int start = end;
+        while (start >= 0 && data[start] != '\n' && !isSpace(data[start]))
+            start--;
+        for (int x = start; x >= 0 && data[x] != '\n'; x--) {
+            if (!isSpace(data[x]))
+                return false;
+        }
+        return AT_ACCESS.matcher(new String(data, start + 1, end - start, StandardCharsets.UTF_8)).matches();
+    }
+
+    private static boolean isSpace(int b) {
+        return b == ' ' || b == '\t';
+    }
+
+    // Anything outside ASCII could be part of a name, so it counts as one
+    private static boolean isNamePart(int b) {
+        return b >= 0x80 || (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_' || b == '$';
+    }
+
+    /**
+     * Globs use '*' for any run of characters but '/', '**' for any at all and '?' for one. A glob without a '/'
+     * only has to match the file name, so '*.refmap.json' finds refmaps anywhere.
+     */
+    public static Predicate<String> globs(List<String> globs) {
+        List<Pattern> full = new ArrayList<>();
+        List<Pattern> names = new ArrayList<>();
+        for (String glob : globs) {
+            StringBuilder regex = new StringBuilder();
+            for (int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+                if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                    regex.append(".*");
+                    i++;
+                } else if (c == '*') {
+                    regex.append("[^/]*");
+                } else if (c == '?') {
+                    regex.append("[^/]");
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            (glob.indexOf('/') == -1 ? names : full).add(Pattern.compile(regex.toString()));
+        }
+        return name -> {
+            for (Pattern pattern : full) {
+                if (pattern.matcher(name).matches())
+                    return true;
+            }
+            String file = name.substring(name.lastIndexOf('/') + 1);
+            for (Pattern pattern : names) {
+                if (pattern.matcher(file).matches())
+                    return true;
+            }
+            return false;
+        };
+    }
+}
@@ -0,0 +1,79 @@
+package net.minecraftforge.lex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.FieldMapping;
+import org.cadixdev.lorenz.model.InnerClassMapping;
+import org.cadixdev.lorenz.model.MethodMapping;
+
+/**
+ * The mappings indexed the other way around, deobfuscated to obfuscated, for remapping a deobfuscated jar back.
+ * Only the lookups are built, pointing at the names already in the MappingSet, rather than a reversed copy of it.
+ * Nothing depends on the jar being remapped, so one instance can be shared by any number of jars and threads.
+ */
+public class ReverseMappings {
+    // Full deobfuscated class name -> full obfuscated
+    private final Map<String, String> classes = new HashMap<>();
+    // Deobfuscated owner -> deobfuscated field name -> obfuscated
+    private final Map<String, Map<String, String>> fields = new HashMap<>();
+    // Deobfuscated owner -> deobfuscated method name + deobfuscated descriptor -> obfuscated
+    private final Map<String, Map<String, String>> methods = new HashMap<>();
+    private final PassThroughFilter filter;
+
+    private ReverseMappings(MappingSet mappings) {
+        for (ClassMapping<?, ?> cls : new ArrayList<>(mappings.getTopLevelClassMappings()))
+            add(cls);
+        this.filter = PassThroughFilter.buildReverse(mappings);
+    }
+
+    public static ReverseMappings of(MappingSet mappings) {
+        return new ReverseMappings(mappings);
+    }
+
+    private void add(ClassMapping<?, ?> cls) {
+        String owner = cls.getFullDeobfuscatedName();
+        classes.put(owner, cls.getFullObfuscatedName());
+
+        for (FieldMapping fld : cls.getFieldMappings()) {
+            if (fld.hasDeobfuscatedName())
+                fields.computeIfAbsent(owner, k -> new HashMap<>()).put(fld.getDeobfuscatedName(), fld.getObfuscatedName());
+        }
+        for (MethodMapping mtd : cls.getMethodMappings()) {
+            if (mtd.hasDeobfuscatedName())
+                methods.computeIfAbsent(owner, k -> new HashMap<>()).put(mtd.getDeobfuscatedName() + mtd.getDeobfuscatedDescriptor(), mtd.getObfuscatedName());
+        }
+
+        for (InnerClassMapping inner : new ArrayList<>(cls.getInnerClassMappings()))
+            add(inner);
+    }
+
+    /**
+     * @return The obfuscated name, or null if the class has no mapping of its own
+     */
+    String getClass(String name) {
+        return classes.get(name);
+    }
+
+    /**
+     * @return The obfuscated name of a field declared in the given class, or null
+     */
+    String getField(String owner, String name) {
+        Map<String, String> ret = fields.get(owner);
+        return ret == null ? null : ret.get(name);
+    }
+
+    /**
+     * @return The obfuscated name of a method declared in the given class, or null
+     */
+    String getMethod(String owner, String name, String descriptor) {
+        Map<String, String> ret = methods.get(owner);
+        return ret == null ? null : ret.get(name + descriptor);
+    }
+
+    PassThroughFilter getFilter() {
+        return filter;
+    }
+}
@@ -0,0 +1,101 @@
+package net.minecraftforge.lex;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.cadixdev.bombe.analysis.InheritanceProvider.ClassInfo;
+import org.cadixdev.bombe.analysis.InheritanceType;
+import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.objectweb.asm.commons.Remapper;
+
+/*
+ * Remaps deobfuscated names back to obfuscated ones through a ReverseMappings. The jar being remapped is deobfuscated, so
+ * the inheritance provider is too, and members not declared where they're referenced are found by walking up from the
+ * owner the same way completing the mappings would have copied them down. Parameters have no obfuscated names to go back
+ * to, they keep the names they have.
+ */
+class ReverseRemapper extends Remapper {
+    private static final String NONE = new String(); // Cached misses, compared by identity
+
+    private final ReverseMappings mappings;
+    private final InheritanceProvider inh;
+    private final Map<String, String> inherited = new ConcurrentHashMap<>();
+
+    ReverseRemapper(ReverseMappings mappings, InheritanceProvider inh) {
+        this.mappings = mappings;
+        this.inh = inh;
+    }
+
+    @Override
+    public String map(String internalName) {
+        String ret = mappings.getClass(internalName);
+        if (ret != null)
+            return ret;
+        // An inner class with no mapping of its own still moves with its outer class
+        int idx = internalName.lastIndexOf('$');
+        if (idx == -1)
+            return internalName;
+        String outer = map(internalName.substring(0, idx));
+        return outer.length() == idx && outer.regionMatches(0, internalName, 0, idx) ? internalName : outer + internalName.substring(idx);
+    }
+
+    @Override
+    public String mapFieldName(String owner, String name, String descriptor) {
+        String ret = resolve(owner, name, null);
+        return ret == null ? name : ret;
+    }
+
+    @Override
+    public String mapMethodName(String owner, String name, String descriptor) {
+        if (name.startsWith("<")) // <init> and <clinit>
+            return name;
+        String ret = resolve(owner, name, descriptor);
+        return ret == null ? name : ret;
+    }
+
+    // Methods are the member name followed by the descriptor, fields the name followed by ':'
+    private String resolve(String owner, String name, String descriptor) {
+        String ret = descriptor == null ? mappings.getField(owner, name) : mappings.getMethod(owner, name, descriptor);
+        if (ret != null)
+            return ret;
+
+        String key = owner + '.' + name + (descriptor == null ? ":" : descriptor);
+        ret = inherited.get(key);
+        if (ret == null) {
+            ret = fromParents(owner, name, descriptor);
+            inherited.putIfAbsent(key, ret == null ? NONE : ret);
+        }
+        return ret == NONE ? null : ret;
+    }
+
+    private String fromParents(String owner, String name, String descriptor) {
+        Optional<ClassInfo> info = inh.provide(owner);
+        if (!info.isPresent())
+            return null;
+
+        ClassInfo child = info.get();
+        String ret = fromParent(child, child.getSuperName(), name, descriptor);
+        for (int x = 0; ret == null && x < child.getInterfaces().size(); x++)
+            ret = fromParent(child, child.getInterfaces().get(x), name, descriptor);
+        return ret;
+    }
+
+    private String fromParent(ClassInfo child, String parentName, String name, String descriptor) {
+        if (parentName == null)
+            return null;
+        // A parent that declares it privately, or package private elsewhere, hides it. One that doesn't declare it at all may still inherit it.
+        Optional<ClassInfo> parent = inh.provide(parentName);
+        if (parent.isPresent()) {
+            InheritanceType type = descriptor == null ? parent.get().getFieldsByName().get(name) : parent.get().getMethods().get(MethodSignature.of(name, descriptor));
+            if (type == InheritanceType.NONE || (type == InheritanceType.PACKAGE_PRIVATE && !samePackage(child.getName(), parentName)))
+                return null;
+        }
+        return resolve(parentName, name, descriptor);
+    }
+
+    private static boolean samePackage(String a, String b) {
+        int idx = a.lastIndexOf('/');
+        return idx == b.lastIndexOf('/') && a.regionMatches(0, b, 0, Math.max(idx, 0));
+    }
+}
@@ -1,7 +1,18 @@
 package net.minecraftforge.lex;
 
+import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import org.cadixdev.lorenz.MappingSet;
 import org.cadixdev.lorenz.io.MappingsReader;
@@ -14,7 +25,33 @@
 import org.objectweb.asm.Type;
 
 public class TSrg2Format implements TextMappingFormat {
-    @Override public MappingsReader createReader(final Reader reader) { return new TSrg2Reader(reader); }
+    private final String from, to;
+
+    public TSrg2Format() {
+        this(null, null);
+    }
+
+    private TSrg2Format(String from, String to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Reads mappings from the {@code from} namespace to the {@code to} namespace, by the names given in the tsrg2 header,
+     * instead of the first two columns. Null keeps the default for that side.
+     */
+    public TSrg2Format withNamespaces(String from, String to) {
+        return new TSrg2Format(from, to);
+    }
+
+    @Override
+    public MappingsReader createReader(final Reader reader) {
+        if (from != null || to != null)
+            throw new UnsupportedOperationException("Selecting TSRGv2 namespaces requires reading from a file");
+        return new TSrg2Reader(reader);
+    }
+
+    @Override public MappingsReader createReader(final Path path) { return new MappedReader(path, from, to); }
     @Override public MappingsWriter createWriter(final Writer writer) { throw new UnsupportedOperationException("No writing TSRGv2"); }
     @Override public Optional<String> getStandardFileExtension() { return Optional.empty(); }
     @Override public String toString() { return "tsrg2"; }
@@ -92,4 +129,260 @@ else if (pts.length == nameCount + 1) {
             private void error(String line) { throw new IllegalArgumentException("Failed to process line: `" + line + "`!"); }
         }
     }
+
+    /*
+     * Same format and behavior as TSrg2Reader, but scans a memory mapped file in place. Lines and columns are
+     * tracked as offsets into the buffer, and only the names that end up in the MappingSet are turned into Strings.
+     *
+     * Any two namespaces can be selected. Descriptors are always written in the first namespace, so if the source isn't
+     * the first one, a first pass collects just the class names needed to translate them.
+     */
+    @SuppressWarnings("rawtypes")
+    private static class MappedReader extends MappingsReader {
+        private final Path path;
+        private final String fromName, toName;
+        private int from = 0, to = 1;
+        private Map<String, String> descClasses; // First namespace -> source namespace, only when they differ
+        private boolean classesOnly, done;
+        private ByteBuffer buf;
+        private byte[] scratch = new byte[256];
+        private int[] starts = new int[8], ends = new int[8];
+        private int count; // Number of columns in the current line, as String.split(" ") would count them
+        private int lineStart, lineEnd;
+
+        private int nameCount = 0;
+        private ClassMapping cls;
+        private MethodMapping mtd;
+        private int[] pidx;
+
+        protected MappedReader(Path path, String fromName, String toName) {
+            this.path = path;
+            this.fromName = fromName;
+            this.toName = toName;
+        }
+
+        @Override
+        public MappingSet read(final MappingSet mappings) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+
+            if (fromName != null) {
+                classesOnly = true;
+                lines(mappings); // Stops after the header if the source is the first namespace
+                classesOnly = done = false;
+                nameCount = 0;
+            }
+            lines(mappings);
+            return mappings;
+        }
+
+        private void lines(final MappingSet mappings) {
+            final int limit = buf.limit();
+            int pos = 0;
+            while (pos < limit && !done) {
+                int end = pos;
+                while (end < limit && buf.get(end) != '\n' && buf.get(end) != '\r')
+                    end++;
+                accept(mappings, pos, end);
+                if (end < limit && buf.get(end) == '\r' && end + 1 < limit && buf.get(end + 1) == '\n')
+                    end++;
+                pos = end + 1;
+            }
+        }
+
+        @Override
+        public void close() {
+            buf = null;
+        }
+
+        private void accept(MappingSet mappings, int start, int end) {
+            // SrgConstants.removeComments
+            for (int x = start; x < end; x++) {
+                if (buf.get(x) == '#') {
+                    end = x;
+                    break;
+                }
+            }
+            if (start == end) return;
+            lineStart = start;
+            lineEnd = end;
+            split(start, end);
+
+            if (startsWith(start, end, "tsrg2 ")) {
+                nameCount = count - 1;
+                header();
+                done = classesOnly && descClasses == null;
+                return;
+            }
+
+            if (classesOnly) {
+                if (count == nameCount && starts[0] < ends[0] && buf.get(start) != '\t' && buf.get(ends[0] - 1) != '/')
+                    descClasses.put(str(0, 0), str(from, 0));
+                return;
+            }
+
+            if (count == 0 || starts[0] == ends[0]) error();
+            if (buf.get(start) == '\t' && ends[0] - starts[0] == 1) error();
+            if (buf.get(start) != '\t') {
+                if (count != nameCount || count < 2) error();
+
+                if (buf.get(ends[0] - 1) != '/') {
+                    this.cls = mappings.getOrCreateClassMapping(str(from, 0));
+                    this.cls.setDeobfuscatedName(str(to, 0));
+                }
+            } else if (buf.get(start + 1) == '\t') {
+                if (mtd == null) error();
+                if (count == 1 && "static".equals(str(0, 2)))
+                    for (int x = 0; x < pidx.length; x++)
+                        pidx[x]--;
+                else if (count == nameCount + 1)
+                    mtd.getOrCreateParameterMapping(pidx[parseInt(0, 2)]).setDeobfuscatedName(str(to + 1, 0));
+                else
+                    error();
+            } else {
+                if (cls == null) error();
+                if (count == nameCount)
+                    cls.getOrCreateFieldMapping(member(from)).setDeobfuscatedName(member(to));
+                else if (count == nameCount + 1) {
+                    // Descriptor is column 1, names shift one column to the right
+                    if (starts[1] < ends[1] && buf.get(starts[1]) == '(') {
+                        mtd = cls.getOrCreateMethodMapping(member(shift(from)), desc()).setDeobfuscatedName(member(shift(to)));
+                        pidx = slots(starts[1], ends[1]);
+                    } else {
+                        mtd = null;
+                        pidx = null;
+                        cls.getOrCreateFieldMapping(member(shift(from)), desc()).setDeobfuscatedName(member(shift(to)));
+                    }
+                }
+            }
+        }
+
+        private void header() {
+            if (fromName == null && toName == null)
+                return;
+            List<String> names = new ArrayList<>();
+            for (int x = 1; x < count; x++)
+                names.add(str(x, 0));
+            from = fromName == null ? 0 : names.indexOf(fromName);
+            to = toName == null ? 1 : names.indexOf(toName);
+            if (from == -1 || to == -1)
+                throw new IllegalArgumentException("Unknown namespace `" + (from == -1 ? fromName : toName) + "`, expected one of " + names);
+            if (from != 0 && descClasses == null)
+                descClasses = new HashMap<>();
+        }
+
+        // Names in the first column of member lines keep their leading tab
+        private String member(int col) {
+            return str(col, col == 0 ? 1 : 0);
+        }
+
+        // Column of a namespace on a member line that has a descriptor in column 1
+        private static int shift(int namespace) {
+            return namespace == 0 ? 0 : namespace + 1;
+        }
+
+        private String desc() {
+            String desc = str(1, 0);
+            if (from == 0)
+                return desc;
+
+            StringBuilder ret = null;
+            int last = 0;
+            for (int x = desc.indexOf('L'); x != -1; x = desc.indexOf('L', x)) {
+                int end = desc.indexOf(';', x);
+                String mapped = descClasses.get(desc.substring(x + 1, end));
+                if (mapped != null) {
+                    if (ret == null)
+                        ret = new StringBuilder(desc.length() + 16);
+                    ret.append(desc, last, x + 1).append(mapped);
+                    last = end;
+                }
+                x = end + 1;
+            }
+            return ret == null ? desc : ret.append(desc, last, desc.length()).toString();
+        }
+
+        // Mirrors String.split(" "): every space is a separator, trailing empty columns are dropped
+        private void split(int start, int end) {
+            count = 0;
+            int col = start;
+            for (int x = start; x <= end; x++) {
+                if (x == end || buf.get(x) == ' ') {
+                    if (count == starts.length) {
+                        starts = Arrays.copyOf(starts, count * 2);
+                        ends = Arrays.copyOf(ends, count * 2);
+                    }
+                    starts[count] = col;
+                    ends[count++] = x;
+                    col = x + 1;
+                }
+            }
+            while (count > 0 && starts[count - 1] == ends[count - 1])
+                count--;
+        }
+
+        private boolean startsWith(int start, int end, String prefix) {
+            if (end - start < prefix.length()) return false;
+            for (int x = 0; x < prefix.length(); x++) {
+                if (buf.get(start + x) != prefix.charAt(x))
+                    return false;
+            }
+            return true;
+        }
+
+        private String str(int col, int skip) {
+            if (col >= count) error();
+            return decode(starts[col] + skip, ends[col]);
+        }
+
+        private String decode(int start, int end) {
+            int len = end - start;
+            if (len > scratch.length)
+                scratch = new byte[Math.max(len, scratch.length * 2)];
+            for (int x = 0; x < len; x++)
+                scratch[x] = buf.get(start + x);
+            return new String(scratch, 0, len, StandardCharsets.UTF_8);
+        }
+
+        private int parseInt(int col, int skip) {
+            int start = starts[col] + skip, end = ends[col];
+            if (start == end) error();
+            int ret = 0;
+            for (int x = start; x < end; x++) {
+                int digit = buf.get(x) - '0';
+                if (digit < 0 || digit > 9) error();
+                ret = ret * 10 + digit;
+            }
+            return ret;
+        }
+
+        // Local variable slot of each parameter in a descriptor, assuming an instance method, like Type.getArgumentTypes would give
+        private int[] slots(int start, int end) {
+            int params = 0;
+            for (int x = start + 1; x < end && buf.get(x) != ')'; x = skipType(x, end))
+                params++;
+
+            int[] ret = new int[params];
+            int i = 1, p = 0;
+            for (int x = start + 1; x < end && buf.get(x) != ')'; x = skipType(x, end)) {
+                ret[p++] = i;
+                byte c = buf.get(x);
+                i += c == 'J' || c == 'D' ? 2 : 1;
+            }
+            return ret;
+        }
+
+        private int skipType(int x, int end) {
+            while (x < end && buf.get(x) == '[')
+                x++;
+            if (x < end && buf.get(x) == 'L') {
+                while (x < end && buf.get(x) != ';')
+                    x++;
+            }
+            return x + 1;
+        }
+
+        private void error() { throw new IllegalArgumentException("Failed to process line: `" + decode(lineStart, lineEnd) + "`!"); }
+    }
 }
@@ -0,0 +1,41 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.cadixdev.vignette;
+
+import java.util.zip.Deflater;
+
+/**
+ * How the entries of an output jar are compressed.
+ *
+ * @since 0.2.0
+ */
+public enum Compression {
+
+    /**
+     * No compression, for jars that are only read again by the next step
+     * of a pipeline.
+     */
+    STORE(Deflater.NO_COMPRESSION),
+    FAST(Deflater.BEST_SPEED),
+    DEFAULT(Deflater.DEFAULT_COMPRESSION),
+    MAX(Deflater.BEST_COMPRESSION),
+    ;
+
+    private final int level;
+
+    Compression(final int level) {
+        this.level = level;
+    }
+
+    /**
+     * @return The {@link Deflater} level
+     */
+    public int getLevel() {
+        return this.level;
+    }
+
+}
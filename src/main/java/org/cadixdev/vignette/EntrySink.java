@@ -0,0 +1,374 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.cadixdev.vignette;
+
+import net.minecraftforge.lex.Log;
+import org.cadixdev.bombe.jar.AbstractJarEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.ZipEntry;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Where the remapped entries go, either a jar or an exploded directory.
+ * <p>
+ * Writing is split in two. {@link #prepare(AbstractJarEntry)} does
+ * whatever doesn't depend on the order, such as compressing the entry,
+ * and is safe to call from any thread, so it runs on the workers along
+ * with the transformers. {@link #write(Prepared)} then writes them out in
+ * order, from one thread at a time.
+ *
+ * @since 0.2.0
+ */
+abstract class EntrySink implements Closeable {
+
+    final Set<String> written = new HashSet<>();
+
+    /**
+     * @param output The jar or directory to write
+     * @param directory Whether to write a directory rather than a jar
+     * @param compression How to compress the entries of a jar
+     * @return The sink
+     * @throws IOException If the output can't be created
+     */
+    static EntrySink open(final Path output, final boolean directory, final Compression compression) throws IOException {
+        return directory ? new Directory(output) : new Zip(new BufferedOutputStream(Files.newOutputStream(output), 64 * 1024), compression);
+    }
+
+    /**
+     * @param out The stream to write a jar to, closed with the sink
+     * @param compression How to compress the entries
+     * @return The sink
+     */
+    static EntrySink zip(final OutputStream out, final Compression compression) {
+        return new Zip(out, compression);
+    }
+
+    /**
+     * @param entry The entry to prepare, or {@code null} for one a
+     *              transformer removed
+     * @return The entry ready to write, or {@code null}
+     */
+    Prepared prepare(final AbstractJarEntry entry) {
+        if (entry == null) {
+            return null;
+        }
+        final byte[] data = entry.getContents();
+        return new Prepared(entry.getName(), entry.getTime(), ZipEntry.STORED, 0, data.length, data, data.length);
+    }
+
+    /**
+     * Prepares and writes an entry on the calling thread.
+     */
+    void write(final AbstractJarEntry entry) throws IOException {
+        this.write(this.prepare(entry));
+    }
+
+    /**
+     * @param entry The entry to write, or {@code null} for one a
+     *              transformer removed
+     * @throws IOException If it can't be written
+     */
+    void write(final Prepared entry) throws IOException {
+        if (entry == null) {
+            return;
+        }
+        // Two entries remapped to the same name, the first one wins
+        if (!this.written.add(entry.name)) {
+            Log.log("Duplicate entry: " + entry.name);
+            return;
+        }
+        this.write0(entry);
+    }
+
+    /**
+     * Writes an entry whose contents are written to a stream, rather
+     * than handed over as one array, on the calling thread.
+     *
+     * @param name The entry name
+     * @param time The modification time
+     * @param contents Writes the contents
+     * @throws IOException If it can't be written
+     */
+    void write(final String name, final long time, final Contents contents) throws IOException {
+        // Compared with the file already there, so it has to be held whole
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (contents.write(out)) {
+            final byte[] data = out.toByteArray();
+            this.write(new Prepared(name, time, ZipEntry.STORED, 0, data.length, data, data.length));
+        }
+    }
+
+    abstract void write0(Prepared entry) throws IOException;
+
+    /**
+     * Removes what an earlier run, or the input itself when remapping in
+     * place, left under the names of input files that weren't written
+     * this time, having been renamed or removed. Nothing else is touched.
+     *
+     * @param inputs The names of the input files
+     * @throws IOException If one can't be removed
+     */
+    void removeStale(final Collection<String> inputs) throws IOException {
+    }
+
+    /**
+     * The contents of an entry, written out a piece at a time.
+     */
+    interface Contents {
+
+        /**
+         * @param out Where to write the contents, not to be closed
+         * @return Whether there were any, the entry is left out if not
+         * @throws IOException If they can't be written
+         */
+        boolean write(OutputStream out) throws IOException;
+
+    }
+
+    /**
+     * An entry ready to write, the data as it will be stored.
+     */
+    static final class Prepared {
+
+        final String name;
+        final long time;
+        final int method;
+        final long crc;
+        final long size;
+        final byte[] data;
+        final int length;
+
+        Prepared(final String name, final long time, final int method, final long crc, final long size, final byte[] data, final int length) {
+            this.name = name;
+            this.time = time;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+            this.length = length;
+        }
+
+    }
+
+    private static final class Zip extends EntrySink {
+
+        private static final byte[] EMPTY = new byte[0];
+
+        private final ZipWriter zip;
+        private final Compression compression;
+        private final Set<String> dirs = new HashSet<>();
+        // Each worker keeps its own, all are ended with the sink
+        private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+        private final ThreadLocal<Deflater> deflater;
+
+        private Zip(final OutputStream out, final Compression compression) {
+            this.zip = new ZipWriter(out);
+            this.compression = compression;
+            this.deflater = ThreadLocal.withInitial(() -> {
+                final Deflater ret = new Deflater(compression.getLevel(), true);
+                this.deflaters.add(ret);
+                return ret;
+            });
+        }
+
+        @Override
+        Prepared prepare(final AbstractJarEntry entry) {
+            if (entry == null) {
+                return null;
+            }
+            final byte[] data = entry.getContents();
+            final CRC32 crc = new CRC32();
+            crc.update(data);
+            if (this.compression == Compression.STORE || data.length == 0) {
+                return new Prepared(entry.getName(), entry.getTime(), ZipEntry.STORED, crc.getValue(), data.length, data, data.length);
+            }
+
+            // Deflated into a buffer no bigger than the input, if it doesn't fit it's not worth compressing
+            final Deflater deflater = this.deflater.get();
+            deflater.reset();
+            deflater.setInput(data);
+            deflater.finish();
+            final byte[] buf = new byte[data.length];
+            int length = 0;
+            while (!deflater.finished() && length < buf.length) {
+                length += deflater.deflate(buf, length, buf.length - length);
+            }
+            if (!deflater.finished()) {
+                return new Prepared(entry.getName(), entry.getTime(), ZipEntry.STORED, crc.getValue(), data.length, data, data.length);
+            }
+            return new Prepared(entry.getName(), entry.getTime(), ZipEntry.DEFLATED, crc.getValue(), data.length, buf, length);
+        }
+
+        // Compressed as it's written, so only the compressed data is ever held
+        @Override
+        void write(final String name, final long time, final Contents contents) throws IOException {
+            final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            final Deflater deflater = this.compression == Compression.STORE ? null : this.deflater.get();
+            final OutputStream stored;
+            if (deflater != null) {
+                deflater.reset();
+                stored = new DeflaterOutputStream(buf, deflater, 8192);
+            }
+            else {
+                stored = buf;
+            }
+            final CRC32 crc = new CRC32();
+            final long[] size = new long[1];
+            final OutputStream out = new FilterOutputStream(stored) {
+                @Override
+                public void write(final int b) throws IOException {
+                    crc.update(b);
+                    size[0]++;
+                    stored.write(b);
+                }
+
+                @Override
+                public void write(final byte[] b, final int off, final int len) throws IOException {
+                    crc.update(b, off, len);
+                    size[0] += len;
+                    stored.write(b, off, len);
+                }
+            };
+            if (!contents.write(out)) {
+                return;
+            }
+            if (deflater != null) {
+                ((DeflaterOutputStream) stored).finish();
+            }
+            final byte[] data = buf.toByteArray();
+            this.write(new Prepared(name, time, deflater != null ? ZipEntry.DEFLATED : ZipEntry.STORED, crc.getValue(), size[0], data, data.length));
+        }
+
+        @Override
+        void write0(final Prepared entry) throws IOException {
+            // Directories as they're first needed, like Atlas creating them for each file
+            for (int idx = entry.name.indexOf('/'); idx != -1; idx = entry.name.indexOf('/', idx + 1)) {
+                final String dir = entry.name.substring(0, idx + 1);
+                if (this.dirs.add(dir)) {
+                    this.zip.write(dir, entry.time, ZipEntry.STORED, 0, 0, EMPTY, 0);
+                }
+            }
+            this.zip.write(entry.name, entry.time, entry.method, entry.crc, entry.size, entry.data, entry.length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                this.zip.close();
+            }
+            finally {
+                this.deflaters.forEach(Deflater::end);
+            }
+        }
+
+    }
+
+    /*
+     * Files whose contents haven't changed are left alone, keeping their
+     * timestamps, so tools watching the directory only see real changes.
+     * New files get the current time rather than the entry's, for the
+     * same reason.
+     */
+    private static final class Directory extends EntrySink {
+
+        // Existing files are compared a chunk at a time, never mapped, as a live mapping stops the file being written on Windows
+        private static final int CHUNK = 64 * 1024;
+
+        private final Path root;
+        private int changed;
+        private int unchanged;
+
+        private Directory(final Path root) throws IOException {
+            this.root = root;
+            Files.createDirectories(root);
+        }
+
+        @Override
+        void write0(final Prepared entry) throws IOException {
+            final Path file = this.resolve(entry.name);
+            if (sameContents(file, entry.data)) {
+                this.unchanged++;
+                return;
+            }
+            this.changed++;
+            Files.createDirectories(file.getParent());
+            Files.write(file, entry.data);
+        }
+
+        @Override
+        void removeStale(final Collection<String> inputs) throws IOException {
+            for (final String name : inputs) {
+                if (!this.written.contains(name) && Files.deleteIfExists(this.resolve(name))) {
+                    this.changed++;
+                }
+            }
+        }
+
+        // Entries come from the input and the transformers, neither can be trusted to stay inside the root
+        private Path resolve(final String name) throws IOException {
+            final Path ret = this.root.resolve(name).normalize();
+            if (!ret.startsWith(this.root.normalize()) || ret.equals(this.root.normalize())) {
+                throw new IOException("Entry outside of the output directory: " + name);
+            }
+            return ret;
+        }
+
+        private static boolean sameContents(final Path file, final byte[] data) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                final long size = channel.size();
+                if (size != data.length) {
+                    return false;
+                }
+                final ByteBuffer buf = ByteBuffer.allocate(Math.min(data.length, CHUNK));
+                for (int pos = 0; pos < data.length; pos += buf.limit()) {
+                    ((Buffer) buf).clear();
+                    ((Buffer) buf).limit(Math.min(buf.capacity(), data.length - pos));
+                    while (buf.hasRemaining()) {
+                        if (channel.read(buf) == -1) {
+                            return false;
+                        }
+                    }
+                    ((Buffer) buf).flip();
+                    if (!buf.equals(ByteBuffer.wrap(data, pos, buf.limit()))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            catch (final NoSuchFileException ex) {
+                return false;
+            }
+        }
+
+        @Override
+        public void close() {
+            Log.log("Output directory: " + this.changed + " changed, " + this.unchanged + " unchanged");
+        }
+
+    }
+
+}
@@ -0,0 +1,219 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.cadixdev.vignette;
+
+import org.cadixdev.bombe.asm.jar.ClassProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The entries of an input to remap, either a jar or an exploded
+ * directory of the same layout, such as a compiler's class output.
+ *
+ * @since 0.2.0
+ */
+abstract class EntrySource implements ClassProvider, Closeable {
+
+    /**
+     * @param input A jar or a directory
+     * @param preload Whether to read every file up front, for when the
+     *                output is written over the input
+     * @return The source
+     * @throws IOException If the input can't be read
+     */
+    static EntrySource open(final Path input, final boolean preload) throws IOException {
+        return Files.isDirectory(input) ? new Directory(input, preload) : new Zip(input);
+    }
+
+    /**
+     * @return The files in the input, in a fixed order, without
+     *         directories
+     * @throws IOException If the input can't be listed
+     */
+    abstract List<Item> list() throws IOException;
+
+    /**
+     * @return The contents of a file, or {@code null} if there is none
+     *         by that name
+     */
+    abstract byte[] read(String name) throws IOException;
+
+    @Override
+    public byte[] get(final String klass) {
+        try {
+            return this.read(klass + ".class");
+        }
+        catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * A file in the input.
+     */
+    static final class Item {
+
+        final String name;
+        final long time;
+        final long size;
+
+        private Item(final String name, final long time, final long size) {
+            this.name = name;
+            this.time = time;
+            this.size = size;
+        }
+
+    }
+
+    private static final class Zip extends EntrySource {
+
+        private final ZipFile zip;
+
+        private Zip(final Path jar) throws IOException {
+            this.zip = new ZipFile(jar.toFile());
+        }
+
+        @Override
+        List<Item> list() {
+            final List<Item> ret = new ArrayList<>();
+            for (final Enumeration<? extends ZipEntry> entries = this.zip.entries(); entries.hasMoreElements();) {
+                final ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    ret.add(new Item(entry.getName(), entry.getTime(), entry.getSize()));
+                }
+            }
+            return ret;
+        }
+
+        @Override
+        byte[] read(final String name) throws IOException {
+            final ZipEntry entry = this.zip.getEntry(name);
+            if (entry == null) {
+                return null;
+            }
+            try (InputStream in = this.zip.getInputStream(entry)) {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max((int) entry.getSize(), 32));
+                final byte[] buf = new byte[8192];
+                int len;
+                while ((len = in.read(buf)) != -1) {
+                    out.write(buf, 0, len);
+                }
+                return out.toByteArray();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.zip.close();
+        }
+
+    }
+
+    private static final class Directory extends EntrySource {
+
+        private final Path root;
+        private final Map<String, byte[]> preloaded;
+
+        private Directory(final Path root, final boolean preload) throws IOException {
+            this.root = root;
+            if (preload) {
+                this.preloaded = new HashMap<>();
+                for (final Item item : this.list()) {
+                    this.preloaded.put(item.name, readFile(this.root.resolve(item.name)));
+                }
+            }
+            else {
+                this.preloaded = null;
+            }
+        }
+
+        // Sorted by name, the order a directory is walked in is up to the file system
+        @Override
+        List<Item> list() throws IOException {
+            try (Stream<Path> files = Files.walk(this.root)) {
+                final List<Item> ret = new ArrayList<>();
+                for (final Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                    final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                    ret.add(new Item(name(this.root, file), attrs.lastModifiedTime().toMillis(), attrs.size()));
+                }
+                ret.sort(Comparator.comparing(item -> item.name));
+                return ret;
+            }
+        }
+
+        @Override
+        byte[] read(final String name) throws IOException {
+            if (this.preloaded != null) {
+                return this.preloaded.get(name);
+            }
+            try {
+                return readFile(this.root.resolve(name));
+            }
+            catch (final NoSuchFileException ex) {
+                return null;
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+    // Relative to the root, separated by '/' whatever the platform
+    static String name(final Path root, final Path file) {
+        final StringBuilder ret = new StringBuilder();
+        for (final Path part : root.relativize(file)) {
+            if (ret.length() != 0) {
+                ret.append('/');
+            }
+            ret.append(part);
+        }
+        return ret.toString();
+    }
+
+    // Straight into an array of the right size, usually in one read, rather than through a growing stream buffer. Not mapped,
+    // the entries have to be arrays for ASM anyway, and remapping in place writes over files a mapping would lock on Windows.
+    static byte[] readFile(final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException("File too large: " + file);
+            }
+            final byte[] ret = new byte[(int) size];
+            final ByteBuffer buf = ByteBuffer.wrap(ret);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf) == -1) {
+                    throw new IOException("File shrank while reading: " + file);
+                }
+            }
+            return ret;
+        }
+    }
+
+}
@@ -0,0 +1,371 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.cadixdev.vignette;
+
+import org.cadixdev.atlas.AtlasTransformerContext;
+import org.cadixdev.bombe.analysis.CachingInheritanceProvider;
+import org.cadixdev.bombe.asm.analysis.ClassProviderInheritanceProvider;
+import org.cadixdev.bombe.asm.jar.ClassProvider;
+import org.cadixdev.bombe.jar.AbstractJarEntry;
+import org.cadixdev.bombe.jar.JarClassEntry;
+import org.cadixdev.bombe.jar.JarEntryTransformer;
+import org.cadixdev.bombe.jar.JarManifestEntry;
+import org.cadixdev.bombe.jar.JarResourceEntry;
+import org.cadixdev.bombe.jar.JarServiceProviderConfigurationEntry;
+import org.cadixdev.bombe.jar.ServiceProviderConfiguration;
+import org.objectweb.asm.Opcodes;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.jar.Manifest;
+
+/**
+ * Runs transformers over a jar the way {@link org.cadixdev.atlas.Atlas}
+ * does, but streaming, so the memory used is set by a budget rather than
+ * by the size of the jar.
+ * <p>
+ * Entries are read, transformed and written through a window of entries
+ * in flight. A new entry is only handed to the workers once the sizes of
+ * the entries already in flight leave room for it in the budget,
+ * otherwise the oldest is waited for and written first. Entries are
+ * written in the order they appear in the input, followed by the
+ * transformers' additions in the order the transformers were installed,
+ * so the output is the same from run to run whatever the thread count.
+ * <p>
+ * Entries can also be handed out biggest first, see
+ * {@link #largestFirst(boolean)}, and read on their own threads, see
+ * {@link #readers(ExecutorService)}.
+ * <p>
+ * Either side can also be an exploded directory instead of a jar, see
+ * {@link EntrySource} and {@link EntrySink}.
+ *
+ * @since 0.2.0
+ */
+final class JarProcessor {
+
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+    private static final String SERVICES = "META-INF/services/";
+    // Counted for every entry on top of its size, so a jar of empty files can't queue without limit
+    private static final long ENTRY_OVERHEAD = 1024;
+
+    private final ExecutorService executor;
+    private final List<ClassProvider> libraries;
+    private final long budget;
+    private final Compression compression;
+    private final List<Function<AtlasTransformerContext, JarEntryTransformer>> factories = new ArrayList<>();
+    private final List<Streamed> streamed = new ArrayList<>();
+    private boolean largestFirst;
+    private ExecutorService readers;
+
+    /**
+     * @param executor The workers to transform entries on
+     * @param libraries Libraries to build the inheritance provider from,
+     *                  after the input jar itself
+     * @param budget The uncompressed bytes of input entries allowed in
+     *               flight at once, an entry bigger than that still goes
+     *               through, on its own
+     * @param compression How to compress the entries of an output jar,
+     *                    on the workers along with the transformers
+     */
+    JarProcessor(final ExecutorService executor, final List<ClassProvider> libraries, final long budget, final Compression compression) {
+        this.executor = executor;
+        this.libraries = libraries;
+        this.budget = budget;
+        this.compression = compression;
+    }
+
+    JarProcessor install(final Function<AtlasTransformerContext, JarEntryTransformer> factory) {
+        this.factories.add(factory);
+        return this;
+    }
+
+    /**
+     * Adds an entry after the transformers' additions, its contents
+     * written straight into the output rather than built as one array
+     * first. They're only asked for once every entry is transformed.
+     *
+     * @param name The entry name
+     * @param time The modification time
+     * @param contents Writes the contents
+     * @return This processor
+     */
+    JarProcessor stream(final String name, final long time, final EntrySink.Contents contents) {
+        this.streamed.add(new Streamed(name, time, contents));
+        return this;
+    }
+
+    /**
+     * Hands entries to the workers biggest first rather than in the order
+     * of the input, so one huge class near the end of a jar isn't left
+     * running alone after everything else is done. The input is cut into
+     * runs of entries that fit in the budget together, and each run is
+     * ordered by size, so the budget holds as before. Entries are still
+     * written in the order of the input.
+     *
+     * @param largestFirst Whether to order entries by size
+     * @return This processor
+     */
+    JarProcessor largestFirst(final boolean largestFirst) {
+        this.largestFirst = largestFirst;
+        return this;
+    }
+
+    /**
+     * Reads entries on the given threads, handing them to the workers
+     * only to be transformed, for when reading is slow enough to leave
+     * the workers waiting, such as an exploded directory on a network
+     * drive.
+     *
+     * @param readers The threads to read on, or {@code null} to read on
+     *                the workers
+     * @return This processor
+     */
+    JarProcessor readers(final ExecutorService readers) {
+        this.readers = readers;
+        return this;
+    }
+
+    /**
+     * @param input The jar or directory to read
+     * @param output The jar or directory to write, may be the same
+     *               directory as the input to remap it in place
+     * @param directory Whether the output is a directory
+     * @throws IOException If either can't be read or written
+     */
+    void run(final Path input, final Path output, final boolean directory) throws IOException {
+        // Written over as it's read, so it all has to be read first
+        final boolean inPlace = directory && Files.isDirectory(input) && Files.isDirectory(output) && Files.isSameFile(input, output);
+        try (EntrySource source = EntrySource.open(input, inPlace)) {
+            final List<ClassProvider> providers = new ArrayList<>();
+            providers.add(source);
+            providers.addAll(this.libraries);
+            final ClassProvider classpath = klass -> {
+                for (final ClassProvider provider : providers) {
+                    final byte[] ret = provider.get(klass);
+                    if (ret != null) {
+                        return ret;
+                    }
+                }
+                return null;
+            };
+
+            final AtlasTransformerContext ctx = new AtlasTransformerContext(new CachingInheritanceProvider(new ClassProviderInheritanceProvider(Opcodes.ASM9, classpath)));
+            final List<JarEntryTransformer> transformers = new ArrayList<>();
+            for (final Function<AtlasTransformerContext, JarEntryTransformer> factory : this.factories) {
+                transformers.add(factory.apply(ctx));
+            }
+
+            final List<EntrySource.Item> items = source.list();
+            try (EntrySink out = EntrySink.open(output, directory, this.compression)) {
+                this.process(source, items, transformers, out);
+                for (final JarEntryTransformer transformer : transformers) {
+                    for (final AbstractJarEntry entry : transformer.additions()) {
+                        out.write(entry);
+                    }
+                }
+                for (final Streamed entry : this.streamed) {
+                    out.write(entry.name, entry.time, entry.contents);
+                }
+                final List<String> names = new ArrayList<>(items.size());
+                for (final EntrySource.Item item : items) {
+                    names.add(item.name);
+                }
+                out.removeStale(names);
+            }
+        }
+    }
+
+    private void process(final EntrySource source, final List<EntrySource.Item> items, final List<JarEntryTransformer> transformers, final EntrySink out) throws IOException {
+        final int[] order = this.order(items);
+        final List<Future<EntrySink.Prepared>> futures = new ArrayList<>(Collections.nCopies(items.size(), null));
+        long inFlight = 0;
+        int next = 0;
+        try {
+            // An entry's run is handed out in full before the run after it, so the entry to write next is always in flight
+            for (int idx = 0; idx < items.size(); idx++) {
+                while (next < order.length) {
+                    final EntrySource.Item item = items.get(order[next]);
+                    if (inFlight != 0 && inFlight + cost(item) > this.budget) {
+                        break;
+                    }
+                    futures.set(order[next++], this.submit(source, item, transformers, out));
+                    inFlight += cost(item);
+                }
+                out.write(get(futures.get(idx)));
+                futures.set(idx, null);
+                inFlight -= cost(items.get(idx));
+            }
+        }
+        finally {
+            // Only left over on failure, nothing will write them
+            for (final Future<EntrySink.Prepared> left : futures) {
+                if (left != null) {
+                    left.cancel(true);
+                }
+            }
+        }
+    }
+
+    // The indexes of the items in the order they're handed out
+    private int[] order(final List<EntrySource.Item> items) {
+        final int[] ret = new int[items.size()];
+        for (int idx = 0; idx < ret.length; idx++) {
+            ret[idx] = idx;
+        }
+        if (!this.largestFirst) {
+            return ret;
+        }
+
+        final List<Integer> run = new ArrayList<>();
+        long runCost = 0;
+        int pos = 0;
+        for (int idx = 0; idx <= items.size(); idx++) {
+            final long cost = idx < items.size() ? cost(items.get(idx)) : 0;
+            if (idx == items.size() || (!run.isEmpty() && runCost + cost > this.budget)) {
+                // Stable, so entries of the same size keep the order of the input
+                run.sort(Comparator.comparingLong((Integer item) -> items.get(item).size).reversed());
+                for (final int item : run) {
+                    ret[pos++] = item;
+                }
+                run.clear();
+                runCost = 0;
+            }
+            if (idx < items.size()) {
+                run.add(idx);
+                runCost += cost;
+            }
+        }
+        return ret;
+    }
+
+    private Future<EntrySink.Prepared> submit(final EntrySource source, final EntrySource.Item item, final List<JarEntryTransformer> transformers, final EntrySink out) {
+        if (this.readers == null) {
+            return this.executor.submit(() -> out.prepare(transform(transformers, toJarEntry(item.name, item.time, source.read(item.name)))));
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return source.read(item.name);
+            }
+            catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }, this.readers).thenApplyAsync(data -> {
+            try {
+                return out.prepare(transform(transformers, toJarEntry(item.name, item.time, data)));
+            }
+            catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }, this.executor);
+    }
+
+    // The share of the budget an entry takes while in flight
+    private static long cost(final EntrySource.Item item) {
+        return Math.max(item.size, 0) + ENTRY_OVERHEAD;
+    }
+
+    static AbstractJarEntry transform(final List<JarEntryTransformer> transformers, AbstractJarEntry entry) {
+        for (final JarEntryTransformer transformer : transformers) {
+            if (entry instanceof JarClassEntry) {
+                entry = transformer.transform((JarClassEntry) entry);
+            }
+            else if (entry instanceof JarManifestEntry) {
+                entry = transformer.transform((JarManifestEntry) entry);
+            }
+            else if (entry instanceof JarServiceProviderConfigurationEntry) {
+                entry = transformer.transform((JarServiceProviderConfigurationEntry) entry);
+            }
+            else if (entry instanceof JarResourceEntry) {
+                entry = transformer.transform((JarResourceEntry) entry);
+            }
+            if (entry == null) {
+                return null;
+            }
+        }
+        return entry;
+    }
+
+    // The same kinds of entry Atlas hands its transformers
+    static AbstractJarEntry toJarEntry(final String name, final long time, final byte[] data) throws IOException {
+        if (name.endsWith(".class")) {
+            return new JarClassEntry(name, time, data);
+        }
+        if (name.equals(MANIFEST)) {
+            return new JarManifestEntry(time, new Manifest(new ByteArrayInputStream(data)));
+        }
+        if (name.startsWith(SERVICES) && name.indexOf('/', SERVICES.length()) == -1) {
+            final List<String> providers = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final int comment = line.indexOf('#');
+                    line = (comment == -1 ? line : line.substring(0, comment)).trim();
+                    if (!line.isEmpty()) {
+                        providers.add(line);
+                    }
+                }
+            }
+            return new JarServiceProviderConfigurationEntry(time, new ServiceProviderConfiguration(name.substring(SERVICES.length()), providers));
+        }
+        return new JarResourceEntry(name, time, data);
+    }
+
+    private static final class Streamed {
+
+        final String name;
+        final long time;
+        final EntrySink.Contents contents;
+
+        Streamed(final String name, final long time, final EntrySink.Contents contents) {
+            this.name = name;
+            this.time = time;
+            this.contents = contents;
+        }
+
+    }
+
+    private static EntrySink.Prepared get(final Future<EntrySink.Prepared> future) throws IOException {
+        try {
+            return future.get();
+        }
+        catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while remapping", ex);
+        }
+        catch (final ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            if (ex.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) ex.getCause()).getCause();
+            }
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            if (ex.getCause() instanceof Error) {
+                throw (Error) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+}
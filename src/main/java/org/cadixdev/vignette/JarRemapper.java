@@ -0,0 +1,589 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.cadixdev.vignette;
+
+import net.minecraftforge.lex.ClassStage;
+import net.minecraftforge.lex.ConstructorInjector;
+import net.minecraftforge.lex.EnhancedRemappingTransformer;
+import net.minecraftforge.lex.Log;
+import net.minecraftforge.lex.MappingCompleter;
+import net.minecraftforge.lex.MappingCopier;
+import net.minecraftforge.lex.ParameterAnnotationFixer;
+import net.minecraftforge.lex.ResourceRemapper;
+import net.minecraftforge.lex.ReverseMappings;
+import org.cadixdev.atlas.Atlas;
+import org.cadixdev.atlas.AtlasTransformerContext;
+import org.cadixdev.bombe.asm.jar.ClassProvider;
+import org.cadixdev.bombe.jar.JarEntryTransformer;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.vignette.cache.CachingTransformer;
+import org.cadixdev.vignette.stats.RemapStats;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Remaps jars with one set of mappings, libraries and options, keeping
+ * everything that doesn't depend on the jar being remapped (the parsed
+ * mappings, the libraries and the worker threads) alive between jars.
+ * <p>
+ * Completing the mappings for a jar adds that jar's hierarchy to them,
+ * so each jar completes a copy of its own, made by walking the mappings
+ * as they were read, which are never changed. A class name reused by a
+ * later jar with another hierarchy doesn't keep the members it inherited
+ * in an earlier one, and nothing a jar adds outlives it. Jars are
+ * remapped one at a time, each with every thread.
+ *
+ * @since 0.2.0
+ */
+public final class JarRemapper implements Closeable {
+
+    // For the JarProcessor, when no budget was given
+    private static final long DEFAULT_IN_FLIGHT = 64L * 1024 * 1024;
+
+    private final ExecutorService executor;
+    private final ForkJoinPool pool;
+    private final List<ClassProvider> libraries = new ArrayList<>();
+    private final MappingSet mappings;
+    // Entries in the mappings as read, checked on every copy
+    private int mappingsSize = -1;
+    private ReverseMappings reverseMappings;
+    private ResourceRemapper resourceRemapper;
+
+    private boolean fernflowerMeta;
+    private boolean createInits;
+    private boolean fixParamAnnotations;
+    private boolean singlePass;
+    private boolean reverse;
+    private long inFlight;
+    private boolean largestFirst;
+    private ExecutorService readers;
+    private Compression compression;
+    private List<String> nestedJars = Collections.emptyList();
+    private List<String> remapResources = Collections.emptyList();
+    private Path cacheDir;
+    private long cacheMaxBytes;
+    // Written to the cache since it was last evicted from
+    private final AtomicLong cacheWritten = new AtomicLong();
+    private String fingerprint;
+    private RemapStats stats;
+
+    /**
+     * @param mappings The mappings to remap with
+     * @param threads The number of threads to use, or {@code null} for
+     *                the number of processors
+     */
+    public JarRemapper(final MappingSet mappings, final Integer threads) {
+        this.mappings = mappings;
+        final int count = threads != null ? threads : Runtime.getRuntime().availableProcessors();
+        this.executor = Executors.newFixedThreadPool(count);
+        this.pool = new ForkJoinPool(count);
+    }
+
+    public JarRemapper library(final ClassProvider library) {
+        this.libraries.add(library);
+        return this;
+    }
+
+    public JarRemapper fernflowerMeta(final boolean fernflowerMeta) {
+        this.fernflowerMeta = fernflowerMeta;
+        return this;
+    }
+
+    public JarRemapper createInits(final boolean createInits) {
+        this.createInits = createInits;
+        return this;
+    }
+
+    public JarRemapper fixParamAnnotations(final boolean fixParamAnnotations) {
+        this.fixParamAnnotations = fixParamAnnotations;
+        return this;
+    }
+
+    public JarRemapper singlePass(final boolean singlePass) {
+        this.singlePass = singlePass;
+        return this;
+    }
+
+    /**
+     * Remaps from deobfuscated names back to obfuscated ones. The
+     * mappings are only indexed in the other direction, once, and
+     * aren't copied or completed per jar. Libraries have to be
+     * deobfuscated too. Synthetic constructors and FernFlower metadata
+     * aren't supported in this direction.
+     *
+     * @param reverse Whether to remap in reverse
+     * @return This remapper
+     */
+    public JarRemapper reverse(final boolean reverse) {
+        this.reverse = reverse;
+        return this;
+    }
+
+    /**
+     * Streams each jar through a {@link JarProcessor} instead of Atlas,
+     * keeping no more than the given number of bytes of entries in flight
+     * at once, rather than the whole jar.
+     *
+     * @param bytes The in-flight budget, or {@code 0} to run through
+     *              Atlas as before
+     * @return This remapper
+     */
+    public JarRemapper inFlight(final long bytes) {
+        this.inFlight = bytes;
+        return this;
+    }
+
+    /**
+     * Transforms the biggest entries of each jar first, on the
+     * work-stealing pool rather than the fixed executor, see
+     * {@link JarProcessor#largestFirst(boolean)}. Like an in-flight
+     * budget, this runs jars through a {@link JarProcessor} instead of
+     * Atlas.
+     *
+     * @param largestFirst Whether to order entries by size
+     * @return This remapper
+     */
+    public JarRemapper largestFirst(final boolean largestFirst) {
+        this.largestFirst = largestFirst;
+        return this;
+    }
+
+    /**
+     * Reads entries on virtual threads, leaving the workers only the
+     * transforming, see {@link JarProcessor#readers(ExecutorService)}.
+     * Virtual threads need Java 21, on anything older entries are read on
+     * the workers as before. Like an in-flight budget, this runs jars
+     * through a {@link JarProcessor} instead of Atlas.
+     *
+     * @param virtualThreads Whether to read on virtual threads
+     * @return This remapper
+     */
+    public JarRemapper virtualThreads(final boolean virtualThreads) {
+        if (this.readers != null)
+            this.readers.shutdown();
+        this.readers = virtualThreads ? newVirtualThreadExecutor() : null;
+        return this;
+    }
+
+    /**
+     * Compresses the entries of output jars at the given level, on the
+     * worker threads rather than while writing. Like an in-flight budget,
+     * this runs jars through a {@link JarProcessor} instead of Atlas.
+     *
+     * @param compression The compression, or {@code null} to leave it to
+     *                    Atlas
+     * @return This remapper
+     */
+    public JarRemapper compression(final Compression compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * Remaps jars nested in the jar, at any depth, with the same
+     * transformers, in memory, see {@link NestedJarTransformer}. Their
+     * classes are part of the hierarchy the mappings are completed for.
+     *
+     * @param dirs The directories nested jars are in, such as
+     *             {@code META-INF/jarjar/}, or none to leave them as they
+     *             are
+     * @return This remapper
+     */
+    public JarRemapper nestedJars(final List<String> dirs) {
+        this.nestedJars = dirs;
+        return this;
+    }
+
+    /**
+     * Rewrites the class and member names in text resources, such as
+     * access transformers, mixin configs and refmaps, see
+     * {@link ResourceRemapper}. The names are indexed once, on the first
+     * jar, and shared by every jar after it.
+     *
+     * @param globs The resources to rewrite, such as
+     *              {@code *.refmap.json}, or none to copy them as they are
+     * @return This remapper
+     */
+    public JarRemapper remapResources(final List<String> globs) {
+        this.remapResources = globs;
+        return this;
+    }
+
+    /**
+     * Reuses transformed classes from earlier runs, see
+     * {@link CachingTransformer}.
+     *
+     * @param cacheDir The cache directory
+     * @param fingerprint Identifies the mappings and libraries, the
+     *                    options are added to it for each jar
+     * @param maxBytes How big the cache may grow before the least
+     *                 recently used classes are evicted
+     * @return This remapper
+     */
+    public JarRemapper cache(final Path cacheDir, final String fingerprint, final long maxBytes) {
+        this.cacheDir = cacheDir;
+        this.fingerprint = fingerprint;
+        this.cacheMaxBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Records timings for the phases of each remap and the work done by
+     * each transformer in the given stats.
+     *
+     * @param stats The stats, or {@code null} to record nothing
+     * @return This remapper
+     */
+    public JarRemapper stats(final RemapStats stats) {
+        this.stats = stats;
+        return this;
+    }
+
+    /**
+     * Remaps a jar. Either side can also be a directory laid out like a
+     * jar, such as a compiler's class output. The output is a directory
+     * when it already is one, or when the input is one and the output
+     * isn't named like a jar or zip. A directory output only has the
+     * files that changed written, and can be the input directory itself
+     * to remap it in place.
+     *
+     * @param jarIn The input jar or directory
+     * @param jarOut The output jar or directory
+     * @throws IOException If either can't be read or written
+     */
+    @SuppressWarnings("try") // The timers are only there to be closed
+    public synchronized void remap(final Path jarIn, final Path jarOut) throws IOException {
+        Log.log("Input: " + jarIn);
+        Log.log("Output: " + jarOut);
+        if (Files.notExists(jarIn)) {
+            throw new NoSuchFileException(jarIn.toString(), null, "Input jar does not exist!");
+        }
+
+        if (this.reverse && (this.createInits || this.fernflowerMeta)) {
+            throw new IllegalStateException("Synthetic constructors and FernFlower metadata can't be generated when remapping in reverse!");
+        }
+
+        // Atlas only handles jars, directories always go through the JarProcessor
+        final boolean directoryIn = Files.isDirectory(jarIn);
+        final boolean directoryOut = Files.isDirectory(jarOut) || (directoryIn && !isArchive(jarOut));
+        if (directoryIn)
+            Log.log("Input is a directory");
+        if (directoryOut)
+            Log.log("Output is a directory");
+
+        final Predicate<String> nested = this.nestedJars.isEmpty() ? null : this::isNestedJar;
+        final List<ClassProvider> libraries = new ArrayList<>(this.libraries);
+        final List<String> inputClasses = classNames(jarIn);
+        if (nested != null) {
+            try (RemapStats.Timer timer = this.time("Scan nested jars")) {
+                final NestedJarClassProvider nestedClasses = NestedJarClassProvider.scan(jarIn, nested);
+                libraries.add(0, nestedClasses);
+                inputClasses.addAll(nestedClasses.getClassNames());
+                Log.log("Nested Jars: " + nestedClasses.getClassNames().size() + " classes");
+            }
+        }
+
+        // The JarProcessor writes its own output, so it can take the FernFlower metadata a line at a time
+        final boolean processed = this.inFlight > 0 || this.compression != null || this.largestFirst || this.readers != null || directoryIn || directoryOut;
+        final boolean streamMeta = processed && this.fernflowerMeta;
+
+        final ResourceRemapper resources = this.remapResources.isEmpty() ? null : this.resourceRemapper();
+        final AtomicReference<EnhancedRemappingTransformer> remapper = new AtomicReference<>();
+        final List<Function<AtlasTransformerContext, JarEntryTransformer>> transformers = this.reverse
+                ? this.reverseTransformers(remapper)
+                : this.transformers(inputClasses, remapper, streamMeta);
+        if (resources != null) {
+            transformers.add(ctx -> this.instrument("Resources", resources));
+            Log.log("Resources: " + this.remapResources);
+        }
+
+        final List<Function<AtlasTransformerContext, JarEntryTransformer>> installed = new ArrayList<>();
+        final AtomicReference<CachingTransformer> cache = new AtomicReference<>();
+        if (this.cacheDir != null) {
+            final String fingerprint = this.fingerprint + ' ' + this.fernflowerMeta + ' ' + this.createInits + ' ' + this.fixParamAnnotations + ' ' + this.singlePass
+                    + ' ' + this.reverse + ' ' + this.nestedJars;
+            installed.add(ctx -> {
+                final List<JarEntryTransformer> chain = new ArrayList<>();
+                for (final Function<AtlasTransformerContext, JarEntryTransformer> factory : transformers)
+                    chain.add(factory.apply(ctx));
+                cache.set(new CachingTransformer(this.cacheDir, fingerprint, chain, remapper.get(), ctx.inheritanceProvider()));
+                return this.instrument("Output cache", cache.get());
+            });
+            Log.log("Cache Dir: " + this.cacheDir);
+        }
+        else {
+            installed.addAll(transformers);
+        }
+
+        if (nested != null) {
+            final List<Function<AtlasTransformerContext, JarEntryTransformer>> chain = new ArrayList<>(installed);
+            installed.clear();
+            installed.add(ctx -> {
+                final List<JarEntryTransformer> applied = new ArrayList<>();
+                for (final Function<AtlasTransformerContext, JarEntryTransformer> factory : chain)
+                    applied.add(factory.apply(ctx));
+                return this.instrument("Nested jars", new NestedJarTransformer(applied, nested, this.pool, this.compression != null ? this.compression : Compression.DEFAULT,
+                        this.fernflowerMeta ? remapper.get() : null));
+            });
+        }
+
+        // Both build the inheritance provider and install the transformers in run, so this includes the phases below
+        try (RemapStats.Timer timer = this.time("Remap")) {
+            if (processed) {
+                final long budget = this.inFlight > 0 ? this.inFlight : DEFAULT_IN_FLIGHT;
+                final Compression compression = this.compression != null ? this.compression : Compression.DEFAULT;
+                Log.log("In flight: " + budget + " bytes");
+                if (!directoryOut)
+                    Log.log("Compression: " + compression.name().toLowerCase(Locale.ROOT));
+                if (this.largestFirst)
+                    Log.log("Largest first");
+                if (this.readers != null)
+                    Log.log("Reading on virtual threads");
+                final JarProcessor processor = new JarProcessor(this.largestFirst ? this.pool : this.executor, libraries, budget, compression)
+                        .largestFirst(this.largestFirst)
+                        .readers(this.readers);
+                installed.forEach(processor::install);
+                if (streamMeta)
+                    processor.stream(EnhancedRemappingTransformer.ABSTRACT_PARAMS, 1, out -> remapper.get().writeAbstractParams(out));
+                processor.run(jarIn, jarOut, directoryOut);
+            }
+            else {
+                // Not closed, that would shut down the shared executor. It holds nothing else, the libraries belong to us.
+                final Atlas atlas = new Atlas(this.executor);
+                libraries.forEach(atlas::use);
+                installed.forEach(atlas::install);
+                atlas.run(jarIn, jarOut);
+            }
+        }
+        Log.log("Remapper cache: " + remapper.get().getRemapperStats());
+        if (cache.get() != null) {
+            Log.log("Output cache: " + cache.get().getStats());
+            // Not on every jar, listing the cache costs about as much as a small jar
+            if (this.cacheWritten.addAndGet(cache.get().getWrittenBytes()) > this.cacheMaxBytes / 10)
+                this.evictCache();
+        }
+    }
+
+    @SuppressWarnings("try")
+    private synchronized void evictCache() throws IOException {
+        this.cacheWritten.set(0);
+        try (RemapStats.Timer timer = this.time("Evict cache")) {
+            CachingTransformer.evict(this.cacheDir, this.cacheMaxBytes);
+        }
+    }
+
+    private List<Function<AtlasTransformerContext, JarEntryTransformer>> transformers(final List<String> inputClasses, final AtomicReference<EnhancedRemappingTransformer> remapper,
+            final boolean streamMeta) throws IOException {
+        final MappingSet mappings = this.copyMappings();
+
+        final List<Function<AtlasTransformerContext, JarEntryTransformer>> transformers = new ArrayList<>();
+        if (this.singlePass) {
+            transformers.add(ctx -> {
+                this.completeMappings(mappings, ctx, inputClasses);
+                final List<ClassStage> stages = new ArrayList<>();
+                if (this.createInits)
+                    stages.add(this.constructorInjector(ctx, mappings, inputClasses));
+                if (this.fixParamAnnotations)
+                    stages.add(new ParameterAnnotationFixer());
+                remapper.set(new EnhancedRemappingTransformer(mappings, ctx, this.fernflowerMeta, stages));
+                if (streamMeta)
+                    remapper.get().streamAbstractParams();
+                return this.instrument("Single Pass", remapper.get());
+            });
+            Log.log("Single Pass");
+            if (this.createInits)
+                Log.log("Constructors");
+            if (this.fixParamAnnotations)
+                Log.log("Parameter Annotations");
+        }
+        else {
+            transformers.add(ctx -> {
+                this.completeMappings(mappings, ctx, inputClasses);
+                remapper.set(new EnhancedRemappingTransformer(mappings, ctx, this.fernflowerMeta));
+                if (streamMeta)
+                    remapper.get().streamAbstractParams();
+                return this.instrument("Remapper", remapper.get());
+            });
+            if (this.createInits) {
+                transformers.add(ctx -> this.instrument("Constructors", this.constructorInjector(ctx, mappings, inputClasses)));
+                Log.log("Constructors");
+            }
+            if (this.fixParamAnnotations) {
+                transformers.add(ctx -> this.instrument("Parameter Annotations", new ParameterAnnotationFixer()));
+                Log.log("Parameter Annotations");
+            }
+        }
+
+        return transformers;
+    }
+
+    // Nothing may change the mappings as read, or one jar would still leak into the next
+    @SuppressWarnings("try")
+    private MappingSet copyMappings() {
+        final MappingCopier copier = new MappingCopier();
+        final MappingSet ret;
+        try (RemapStats.Timer timer = this.time("Copy mappings")) {
+            ret = copier.copy(this.mappings);
+        }
+        if (this.mappingsSize == -1) {
+            this.mappingsSize = copier.size();
+        }
+        else if (copier.size() != this.mappingsSize) {
+            throw new IllegalStateException("The mappings were changed by an earlier jar, " + this.mappingsSize + " entries became " + copier.size());
+        }
+        return ret;
+    }
+
+    // The ReverseMappings hold nothing specific to a jar, so every jar shares them
+    private List<Function<AtlasTransformerContext, JarEntryTransformer>> reverseTransformers(final AtomicReference<EnhancedRemappingTransformer> remapper) {
+        final ReverseMappings mappings = this.reverseMappings();
+        Log.log("Reverse");
+
+        final List<Function<AtlasTransformerContext, JarEntryTransformer>> transformers = new ArrayList<>();
+        if (this.singlePass) {
+            transformers.add(ctx -> {
+                final List<ClassStage> stages = new ArrayList<>();
+                if (this.fixParamAnnotations)
+                    stages.add(new ParameterAnnotationFixer());
+                remapper.set(EnhancedRemappingTransformer.reverse(mappings, ctx, stages));
+                return this.instrument("Single Pass", remapper.get());
+            });
+            Log.log("Single Pass");
+            if (this.fixParamAnnotations)
+                Log.log("Parameter Annotations");
+        }
+        else {
+            transformers.add(ctx -> {
+                remapper.set(EnhancedRemappingTransformer.reverse(mappings, ctx, Collections.emptyList()));
+                return this.instrument("Remapper", remapper.get());
+            });
+            if (this.fixParamAnnotations) {
+                transformers.add(ctx -> this.instrument("Parameter Annotations", new ParameterAnnotationFixer()));
+                Log.log("Parameter Annotations");
+            }
+        }
+        return transformers;
+    }
+
+    @SuppressWarnings("try")
+    private synchronized ReverseMappings reverseMappings() {
+        if (this.reverseMappings == null) {
+            try (RemapStats.Timer timer = this.time("Index reverse mappings")) {
+                this.reverseMappings = ReverseMappings.of(this.mappings);
+            }
+        }
+        return this.reverseMappings;
+    }
+
+    @SuppressWarnings("try")
+    private synchronized ResourceRemapper resourceRemapper() {
+        if (this.resourceRemapper == null) {
+            try (RemapStats.Timer timer = this.time("Index resource names")) {
+                this.resourceRemapper = ResourceRemapper.build(this.mappings, this.reverse, this.remapResources);
+            }
+            Log.log("Resource names: " + this.resourceRemapper.size());
+        }
+        return this.resourceRemapper;
+    }
+
+    private JarEntryTransformer instrument(final String name, final JarEntryTransformer transformer) {
+        return this.stats == null ? transformer : this.stats.instrument(name, transformer);
+    }
+
+    // null when there are no stats, which try-with-resources skips
+    private RemapStats.Timer time(final String phase) {
+        return this.stats == null ? null : this.stats.time(phase);
+    }
+
+    private boolean isNestedJar(final String name) {
+        if (!name.endsWith(".jar"))
+            return false;
+        for (final String dir : this.nestedJars) {
+            if (name.startsWith(dir))
+                return true;
+        }
+        return false;
+    }
+
+    // Through reflection, the build targets Java 8
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (final ReflectiveOperationException ex) {
+            Log.log("Virtual threads need Java 21, reading on the workers instead");
+            return null;
+        }
+    }
+
+    private static boolean isArchive(final Path path) {
+        final String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".jar") || name.endsWith(".zip");
+    }
+
+    private static List<String> classNames(final Path jar) throws IOException {
+        final List<String> ret = new ArrayList<>();
+        try (EntrySource source = EntrySource.open(jar, false)) {
+            for (final EntrySource.Item item : source.list()) {
+                final String name = item.name;
+                if (name.endsWith(".class") && !name.startsWith("META-INF/") && !name.endsWith("-info.class"))
+                    ret.add(name.substring(0, name.length() - ".class".length()));
+            }
+        }
+        return ret;
+    }
+
+    // Runs once Atlas has built the inheritance provider from the libraries, before any class is transformed
+    @SuppressWarnings("try")
+    private void completeMappings(final MappingSet mappings, final AtlasTransformerContext ctx, final List<String> classes) {
+        final long start = System.nanoTime();
+        final int count;
+        try (RemapStats.Timer timer = this.time("Complete mappings")) {
+            count = MappingCompleter.complete(mappings, ctx.inheritanceProvider(), classes, this.pool);
+        }
+        Log.log("Completed " + count + " classes in " + (System.nanoTime() - start) / 1000000 + "ms");
+    }
+
+    @SuppressWarnings("try")
+    private ConstructorInjector constructorInjector(final AtlasTransformerContext ctx, final MappingSet mappings, final List<String> classes) {
+        final ConstructorInjector ret = new ConstructorInjector(ctx, mappings);
+        try (RemapStats.Timer timer = this.time("Prime constructors")) {
+            ret.prime(classes, this.pool);
+        }
+        return ret;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.executor.shutdown();
+        this.pool.shutdown();
+        if (this.readers != null)
+            this.readers.shutdown();
+        if (this.cacheDir != null && this.cacheWritten.get() > 0)
+            this.evictCache();
+        for (final ClassProvider library : this.libraries) {
+            if (library instanceof Closeable)
+                ((Closeable) library).close();
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.cadixdev.vignette;
+
+import org.cadixdev.bombe.asm.jar.ClassProvider;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * The classes in the jars nested in a jar, at any depth, so that they
+ * are part of the hierarchy when completing the mappings and remapping,
+ * the same as the outer jar's own classes.
+ * <p>
+ * Only where each class is gets kept, the bytes are read again when
+ * asked for. A lookup reads the whole nested jar the class is in, as
+ * its neighbours tend to be asked for next, and keeps the most recently
+ * used classes up to a fixed size.
+ *
+ * @since 0.2.0
+ */
+final class NestedJarClassProvider implements ClassProvider {
+
+    private static final long MAX_CACHED = 32L * 1024 * 1024;
+
+    private final Path jar;
+    private final Predicate<String> nested;
+    // The entries leading to the jar each class is in, from the outer jar inwards. One list per nested jar, shared by its classes.
+    private final Map<String, List<String>> locations = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private final LinkedHashMap<String, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cached;
+
+    private NestedJarClassProvider(final Path jar, final Predicate<String> nested) {
+        this.jar = jar;
+        this.nested = nested;
+    }
+
+    /**
+     * @param jar The outer jar, or directory
+     * @param nested Whether an entry, by name, is a jar to look in
+     * @return The classes of every nested jar in the outer one
+     * @throws IOException If a jar can't be read
+     */
+    static NestedJarClassProvider scan(final Path jar, final Predicate<String> nested) throws IOException {
+        final NestedJarClassProvider ret = new NestedJarClassProvider(jar, nested);
+        try (EntrySource source = EntrySource.open(jar, false)) {
+            for (final EntrySource.Item item : source.list()) {
+                if (nested.test(item.name)) {
+                    ret.add(new ByteArrayInputStream(source.read(item.name)), Collections.singletonList(item.name));
+                }
+            }
+        }
+        return ret;
+    }
+
+    private void add(final InputStream jar, final List<String> path) throws IOException {
+        final ZipInputStream zip = new ZipInputStream(jar);
+        for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+            final String name = entry.getName();
+            if (entry.isDirectory()) {
+                continue;
+            }
+            if (this.nested.test(name)) {
+                final List<String> inner = new ArrayList<>(path);
+                inner.add(name);
+                this.add(zip, inner); // Reads only to the end of this entry
+            }
+            else if (isClass(name)) {
+                final String cls = name.substring(0, name.length() - ".class".length());
+                // The first copy wins, as it would on the classpath
+                if (!this.locations.containsKey(cls)) {
+                    this.locations.put(cls, path);
+                    this.names.add(cls);
+                }
+            }
+        }
+    }
+
+    private static boolean isClass(final String name) {
+        return name.endsWith(".class") && !name.startsWith("META-INF/") && !name.endsWith("-info.class");
+    }
+
+    // The current entry of the stream, without closing it
+    static byte[] read(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buf = new byte[8192];
+        int len;
+        while ((len = in.read(buf)) != -1) {
+            out.write(buf, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return The internal names of the nested classes, in the order they
+     *         were found
+     */
+    List<String> getClassNames() {
+        return this.names;
+    }
+
+    @Override
+    public byte[] get(final String klass) {
+        final List<String> path = this.locations.get(klass);
+        if (path == null) {
+            return null;
+        }
+        synchronized (this.cache) {
+            final byte[] ret = this.cache.get(klass);
+            if (ret != null) {
+                return ret;
+            }
+            try {
+                return this.load(path, klass);
+            }
+            catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    // Reads every class of the nested jar at the path into the cache, and returns the one asked for
+    private byte[] load(final List<String> path, final String klass) throws IOException {
+        byte[] data;
+        try (EntrySource source = EntrySource.open(this.jar, false)) {
+            data = source.read(path.get(0));
+        }
+        for (int i = 1; i < path.size(); i++) {
+            data = entry(data, path.get(i));
+        }
+
+        byte[] ret = null;
+        final ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(data));
+        for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+            final String name = entry.getName();
+            if (entry.isDirectory() || !isClass(name)) {
+                continue;
+            }
+            final String cls = name.substring(0, name.length() - ".class".length());
+            // Another copy may have been found first, that one is the class
+            if (this.locations.get(cls) != path || this.cache.containsKey(cls)) {
+                continue;
+            }
+            final byte[] bytes = read(zip);
+            this.cache.put(cls, bytes);
+            this.cached += bytes.length;
+            if (cls.equals(klass)) {
+                ret = bytes;
+            }
+        }
+
+        // Least recently used first, the one asked for is kept by the caller even if it goes
+        for (final Iterator<byte[]> it = this.cache.values().iterator(); this.cached > MAX_CACHED && it.hasNext();) {
+            this.cached -= it.next().length;
+            it.remove();
+        }
+        return ret;
+    }
+
+    private static byte[] entry(final byte[] jar, final String name) throws IOException {
+        final ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(jar));
+        for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+            if (entry.getName().equals(name)) {
+                return read(zip);
+            }
+        }
+        throw new IOException("Nested jar " + name + " is gone");
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.cadixdev.vignette;
+
+import net.minecraftforge.lex.EnhancedRemappingTransformer;
+import org.cadixdev.bombe.jar.AbstractJarEntry;
+import org.cadixdev.bombe.jar.JarClassEntry;
+import org.cadixdev.bombe.jar.JarEntryTransformer;
+import org.cadixdev.bombe.jar.JarManifestEntry;
+import org.cadixdev.bombe.jar.JarResourceEntry;
+import org.cadixdev.bombe.jar.JarServiceProviderConfigurationEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Runs a chain of transformers over a jar, and over every jar nested in
+ * it, at any depth, with the same transformers.
+ * <p>
+ * A nested jar is read from its entry in memory, its entries are
+ * transformed in parallel on the given pool, and it is written back out
+ * as the contents of the same entry, in its original order, without
+ * touching the disk. The FernFlower metadata of a nested jar's classes is
+ * written into that jar, other additions are only made to the outer jar.
+ *
+ * @since 0.2.0
+ */
+final class NestedJarTransformer implements JarEntryTransformer {
+
+    private final List<JarEntryTransformer> chain;
+    private final Predicate<String> nested;
+    private final ForkJoinPool pool;
+    private final Compression compression;
+    private final EnhancedRemappingTransformer remapper;
+    // Nested jars go through this again, for the jars nested in them
+    private final List<JarEntryTransformer> self = Collections.singletonList(this);
+
+    /**
+     * @param chain The transformers to run, in order
+     * @param nested Whether an entry, by name, is a jar to remap
+     * @param pool The pool to transform and compress the entries of
+     *             nested jars on
+     * @param compression How to compress the entries of nested jars
+     * @param remapper The remapper in the chain, to give each nested jar
+     *                 the FernFlower metadata of its own classes, or
+     *                 {@code null} if there is none to make
+     */
+    NestedJarTransformer(final List<JarEntryTransformer> chain, final Predicate<String> nested, final ForkJoinPool pool, final Compression compression,
+            final EnhancedRemappingTransformer remapper) {
+        this.chain = chain;
+        this.nested = nested;
+        this.pool = pool;
+        this.compression = compression;
+        this.remapper = remapper;
+    }
+
+    @Override
+    public JarClassEntry transform(final JarClassEntry entry) {
+        return (JarClassEntry) JarProcessor.transform(this.chain, entry);
+    }
+
+    @Override
+    public JarResourceEntry transform(final JarResourceEntry entry) {
+        if (!this.nested.test(entry.getName())) {
+            return (JarResourceEntry) JarProcessor.transform(this.chain, entry);
+        }
+        try {
+            return new JarResourceEntry(entry.getName(), entry.getTime(), this.remap(entry.getContents()));
+        }
+        catch (final IOException ex) {
+            throw new UncheckedIOException("Failed to remap nested jar " + entry.getName(), ex);
+        }
+    }
+
+    @Override
+    public JarManifestEntry transform(final JarManifestEntry entry) {
+        return (JarManifestEntry) JarProcessor.transform(this.chain, entry);
+    }
+
+    @Override
+    public JarServiceProviderConfigurationEntry transform(final JarServiceProviderConfigurationEntry entry) {
+        return (JarServiceProviderConfigurationEntry) JarProcessor.transform(this.chain, entry);
+    }
+
+    @Override
+    public List<AbstractJarEntry> additions() {
+        final List<AbstractJarEntry> ret = new ArrayList<>();
+        for (final JarEntryTransformer transformer : this.chain) {
+            ret.addAll(transformer.additions());
+        }
+        return ret;
+    }
+
+    private byte[] remap(final byte[] jar) throws IOException {
+        final List<AbstractJarEntry> entries = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(jar))) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                if (!entry.isDirectory()) {
+                    entries.add(JarProcessor.toJarEntry(entry.getName(), entry.getTime(), NestedJarClassProvider.read(zip)));
+                }
+            }
+        }
+
+        final EnhancedRemappingTransformer.NestedMetadata metadata = this.remapper == null ? null : this.remapper.nestedMetadata();
+        final ByteArrayOutputStream ret = new ByteArrayOutputStream(jar.length);
+        try (EntrySink out = EntrySink.zip(ret, this.compression)) {
+            // Going through this again for a jar nested in this one, this will already be on the pool, which joins by working
+            final List<EntrySink.Prepared> transformed = ForkJoinTask.getPool() == this.pool
+                    ? this.transformAll(entries, out, metadata)
+                    : this.pool.submit(() -> this.transformAll(entries, out, metadata)).join();
+            for (final EntrySink.Prepared entry : transformed) {
+                out.write(entry);
+            }
+            if (metadata != null) {
+                out.write(EnhancedRemappingTransformer.ABSTRACT_PARAMS, 1, metadata::write);
+            }
+        }
+        return ret.toByteArray();
+    }
+
+    private List<EntrySink.Prepared> transformAll(final List<AbstractJarEntry> entries, final EntrySink out, final EnhancedRemappingTransformer.NestedMetadata metadata) {
+        return entries.parallelStream()
+                .map(entry -> out.prepare(metadata == null
+                        ? JarProcessor.transform(this.self, entry)
+                        : metadata.run(() -> JarProcessor.transform(this.self, entry))))
+                .collect(Collectors.toList());
+    }
+
+}
@@ -0,0 +1,216 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.cadixdev.vignette;
+
+import net.minecraftforge.lex.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves remap requests from other processes on a localhost port, so
+ * a build can remap many jars through one warmed up {@link JarRemapper}.
+ * <p>
+ * The port is open to every local user, so each request has to carry a
+ * random token, which is written to a file only the user running the
+ * server can read. The protocol is line based: a client sends
+ * {@code <token>\t<jar-in>\t<jar-out>} and gets back {@code OK <millis>}
+ * or {@code ERROR <message>}, and may send as many requests as it likes
+ * on one connection. {@code <token>\tSTOP} shuts the server down. A
+ * request with the wrong token closes the connection.
+ * <p>
+ * Each connection has a thread of its own, so an idle client doesn't
+ * hold up the others. The jars themselves are remapped one at a time,
+ * see {@link JarRemapper}, each already uses every worker thread.
+ *
+ * @since 0.2.0
+ */
+public final class RemapServer {
+
+    private final JarRemapper remapper;
+    private final ExecutorService connections = Executors.newCachedThreadPool(task -> {
+        final Thread ret = new Thread(task, "Vignette connection");
+        ret.setDaemon(true);
+        return ret;
+    });
+    private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+    private byte[] token;
+    private ServerSocket server;
+    private volatile boolean running = true;
+
+    public RemapServer(final JarRemapper remapper) {
+        this.remapper = remapper;
+    }
+
+    /**
+     * Accepts connections until a client asks the server to stop.
+     *
+     * @param port The port to listen on, on the loopback address only
+     * @param tokenFile Where to write the token clients have to send,
+     *                  readable only by the current user, and deleted
+     *                  when the server stops
+     * @throws IOException If the port can't be bound or the token can't
+     *                     be written
+     */
+    public void serve(final int port, final Path tokenFile) throws IOException {
+        final byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        final StringBuilder hex = new StringBuilder();
+        for (final byte b : random) {
+            hex.append(String.format("%02x", b));
+        }
+        this.token = hex.toString().getBytes(StandardCharsets.UTF_8);
+        writeToken(tokenFile, hex.toString());
+
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            this.server = server;
+            Log.log("Listening on " + server.getLocalSocketAddress() + ", token in " + tokenFile);
+            while (this.running) {
+                final Socket socket;
+                try {
+                    socket = server.accept();
+                }
+                catch (final IOException ex) {
+                    if (!this.running) {
+                        break; // Closed by STOP
+                    }
+                    throw ex;
+                }
+                this.open.add(socket);
+                this.connections.execute(() -> {
+                    try (Socket closing = socket) {
+                        this.handle(closing);
+                    }
+                    catch (final IOException ex) {
+                        Log.log("Lost connection: " + ex);
+                    }
+                    finally {
+                        this.open.remove(socket);
+                    }
+                });
+            }
+        }
+        finally {
+            // Idle connections see the end of their input straight away, a jar still remapping finishes and gets its answer
+            for (final Socket socket : this.open) {
+                try {
+                    socket.shutdownInput();
+                }
+                catch (final IOException ex) {
+                    // Already gone
+                }
+            }
+            this.connections.shutdown();
+            try {
+                this.connections.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            Files.deleteIfExists(tokenFile);
+        }
+    }
+
+    // Created under another name with the permissions already set, so the token is never readable by anyone else
+    private static void writeToken(final Path file, final String token) throws IOException {
+        final Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        final Path tmp;
+        if (dir.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            tmp = Files.createTempFile(dir, "token", ".tmp", PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        else {
+            tmp = Files.createTempFile(dir, "token", ".tmp");
+            final AclFileAttributeView acl = Files.getFileAttributeView(tmp, AclFileAttributeView.class);
+            if (acl == null) {
+                Files.delete(tmp);
+                throw new IOException("Can't restrict the token file to its owner on this file system: " + file);
+            }
+            acl.setAcl(Collections.singletonList(AclEntry.newBuilder()
+                    .setType(AclEntryType.ALLOW)
+                    .setPrincipal(Files.getOwner(tmp))
+                    .setPermissions(EnumSet.allOf(AclEntryPermission.class))
+                    .build()));
+        }
+        try {
+            Files.write(tmp, token.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void handle(final Socket socket) throws IOException {
+        final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        final PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            final String[] pts = line.split("\t");
+            // Compared in constant time, so the token can't be guessed a byte at a time
+            if (!MessageDigest.isEqual(pts[0].getBytes(StandardCharsets.UTF_8), this.token)) {
+                Log.log("Rejected a request with the wrong token from " + socket.getRemoteSocketAddress());
+                out.println("ERROR Unauthorized");
+                return;
+            }
+            if (pts.length == 2 && pts[1].equals("STOP")) {
+                this.running = false;
+                out.println("OK");
+                this.server.close();
+                return;
+            }
+            if (pts.length != 3) {
+                out.println("ERROR Expected <token>\\t<jar-in>\\t<jar-out>");
+                continue;
+            }
+
+            final long start = System.nanoTime();
+            try {
+                this.remapper.remap(Paths.get(pts[1]), Paths.get(pts[2]));
+                out.println("OK " + (System.nanoTime() - start) / 1000000);
+            }
+            catch (final IOException | RuntimeException ex) {
+                final StringWriter trace = new StringWriter();
+                ex.printStackTrace(new PrintWriter(trace));
+                Log.log(trace.toString().trim());
+                out.println("ERROR " + String.valueOf(ex).replace('\n', ' '));
+            }
+        }
+    }
+
+}
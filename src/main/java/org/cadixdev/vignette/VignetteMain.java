@@ -12,23 +12,30 @@
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
-import net.minecraftforge.lex.ConstructorInjector;
-import net.minecraftforge.lex.EnhancedRemappingTransformer;
-import net.minecraftforge.lex.ParameterAnnotationFixer;
+import net.minecraftforge.lex.Log;
+import net.minecraftforge.lex.MappingComposer;
+import net.minecraftforge.lex.TSrg2Format;
 
-import org.cadixdev.atlas.Atlas;
 import org.cadixdev.lorenz.MappingSet;
 import org.cadixdev.lorenz.io.MappingFormat;
 import org.cadixdev.lorenz.io.MappingFormats;
+import org.cadixdev.vignette.cache.LibraryIndex;
+import org.cadixdev.vignette.cache.MappingsCache;
+import org.cadixdev.vignette.stats.RemapStats;
+import org.cadixdev.vignette.util.Hashing;
+import org.cadixdev.vignette.util.JarClassProvider;
 import org.cadixdev.vignette.util.MappingFormatValueConverter;
 import org.cadixdev.vignette.util.PathValueConverter;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Stream;
 
 /**
@@ -39,6 +46,7 @@
  */
 public final class VignetteMain {
 
+    @SuppressWarnings("try") // The timers are only there to be closed
     public static void main(final String[] args) {
 
         final OptionParser parser = new OptionParser();
@@ -48,29 +56,86 @@ public static void main(final String[] args) {
         final OptionSpec<Void> versionSpec = parser.accepts("version", "Shows the version");
 
         // Options
-        final OptionSpec<Path> jarInSpec = parser.acceptsAll(asList("jar-in", "i"), "The jar to remap/map")
+        final OptionSpec<Path> jarInSpec = parser.acceptsAll(asList("jar-in", "i"), "The jar, or directory of classes, to remap/map")
                 .withRequiredArg()
                 .withValuesConvertedBy(PathValueConverter.INSTANCE);
-        final OptionSpec<Path> jarOutSpec = parser.acceptsAll(asList("jar-out", "o"), "The output jar")
+        final OptionSpec<Path> jarOutSpec = parser.acceptsAll(asList("jar-out", "o"), "The output jar, or directory, only changed files are written to a directory, which may be the input to remap in place")
                 .withRequiredArg()
                 .withValuesConvertedBy(PathValueConverter.INSTANCE);
-        final OptionSpec<MappingFormat> mappingFormatSpec = parser.acceptsAll(asList("mapping-format", "f"), "The mapping format")
+        final OptionSpec<MappingFormat> mappingFormatSpec = parser.acceptsAll(asList("mapping-format", "f"), "The mapping format, given once per mappings file or once for all of them")
                 .withRequiredArg()
                 .withValuesConvertedBy(MappingFormatValueConverter.INSTANCE)
                 .defaultsTo(MappingFormats.SRG);
-        final OptionSpec<Path> mappingsSpec = parser.acceptsAll(asList("mappings", "m"), "The mappings to remap with")
+        final OptionSpec<Path> mappingsSpec = parser.acceptsAll(asList("mappings", "m"), "The mappings to remap with, repeat to chain several, each mapping from the names the one before it maps to")
                 .withRequiredArg()
                 .withValuesConvertedBy(PathValueConverter.INSTANCE);
 
+        final OptionSpec<String> fromSpec = parser.accepts("from", "The namespace to map from, for mapping formats with more than two (tsrg2)")
+                .withRequiredArg();
+        final OptionSpec<String> toSpec = parser.accepts("to", "The namespace to map to, for mapping formats with more than two (tsrg2)")
+                .withRequiredArg();
+
         // Optional Options
         final OptionSpec<Integer> threadsSpec = parser.acceptsAll(asList("threads", "t"), "Number of threads to use when remapping")
                 .withRequiredArg().ofType(Integer.class);
+        final OptionSpec<Integer> inFlightSpec = parser.accepts("in-flight", "Stream jars through, keeping at most this many megabytes of entries in memory at once instead of the whole jar")
+                .withRequiredArg().ofType(Integer.class);
+        final OptionSpec<Void> largestFirstSpec = parser.accepts("largest-first", "Transform the biggest entries of a jar first, on a work-stealing pool, so one huge class doesn't finish alone at the end");
+        final OptionSpec<Void> virtualThreadsSpec = parser.accepts("virtual-threads", "Read entries on virtual threads, leaving the worker threads to transform them, needs Java 21");
+        final OptionSpec<String> compressionSpec = parser.accepts("compression", "How to compress output jars: 'store', 'fast', 'default' or 'max', compressed in parallel")
+                .withRequiredArg();
+        final OptionSpec<String> nestedJarsSpec = parser.accepts("nested-jars", "Remap jars nested in the jar too, those in the given comma separated directories")
+                .withOptionalArg()
+                .withValuesSeparatedBy(',')
+                .defaultsTo("META-INF/jarjar/", "META-INF/jars/");
+        final OptionSpec<String> remapResourcesSpec = parser.accepts("remap-resources", "Rewrite class and member names in resources matching the given glob, such as '*.refmap.json', can be given more than once")
+                .withRequiredArg();
         final OptionSpec<Path> librarySpec = parser.acceptsAll(asList("library", "l", "e"), "Library to add to the classpath for constructing inheritence")
                 .withRequiredArg()
                 .withValuesConvertedBy(PathValueConverter.INSTANCE);
+        final OptionSpec<Path> mappingsCacheSpec = parser.accepts("mappings-cache", "Directory to keep binary copies of parsed mappings in, so the same mappings load faster next time")
+                .withRequiredArg()
+                .withValuesConvertedBy(PathValueConverter.INSTANCE);
+        final OptionSpec<Path> libraryCacheSpec = parser.accepts("library-cache", "Directory to keep the inheritance indexes of libraries in, so unchanged libraries aren't read again")
+                .withRequiredArg()
+                .withValuesConvertedBy(PathValueConverter.INSTANCE);
+        final OptionSpec<Path> cacheDirSpec = parser.accepts("cache-dir", "Directory to keep transformed classes in, so classes that haven't changed since an earlier run with the same mappings and options are reused")
+                .withRequiredArg()
+                .withValuesConvertedBy(PathValueConverter.INSTANCE);
+        final OptionSpec<Integer> cacheMaxSizeSpec = parser.accepts("cache-max-size", "How many megabytes --cache-dir may grow to before the least recently used classes are evicted")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(1024);
+        final OptionSpec<Path> batchSpec = parser.accepts("batch", "Remap every jar listed in the given file, one '<jar-in><tab><jar-out>' pair per line, sharing the mappings and libraries")
+                .withRequiredArg()
+                .withValuesConvertedBy(PathValueConverter.INSTANCE);
+        final OptionSpec<Integer> daemonSpec = parser.accepts("daemon", "Stay running and remap jars requested over the given localhost port, see RemapServer")
+                .withRequiredArg()
+                .ofType(Integer.class);
+        final OptionSpec<Path> daemonTokenSpec = parser.accepts("daemon-token-file", "Where to write the token clients of --daemon have to send, readable only by the current user, defaults to ~/.vignette/daemon-<port>.token")
+                .withRequiredArg()
+                .withValuesConvertedBy(PathValueConverter.INSTANCE);
+        final OptionSpec<String> statsSpec = parser.accepts("stats", "Report the time, CPU and memory spent in each phase and transformer, as a 'table' or 'json'")
+                .withOptionalArg()
+                .defaultsTo("table");
+        final OptionSpec<Integer> statsSlowestSpec = parser.accepts("stats-slowest", "How many of the slowest classes to list in the stats")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(10);
+        final OptionSpec<Path> statsFileSpec = parser.accepts("stats-file", "Write the stats to the given file instead of the console")
+                .withRequiredArg()
+                .withValuesConvertedBy(PathValueConverter.INSTANCE);
+        final OptionSpec<String> logLevelSpec = parser.accepts("log-level", "How much to log: 'quiet', 'normal' or 'debug'")
+                .withRequiredArg()
+                .defaultsTo("normal");
+        final OptionSpec<Path> logFileSpec = parser.accepts("log-file", "Write the log to the given file instead of the console")
+                .withRequiredArg()
+                .withValuesConvertedBy(PathValueConverter.INSTANCE);
         final OptionSpec<Void> ffmetaSpec = parser.acceptsAll(asList("fernflower-meta", "f"), "Generate special metadata file for ForgeFlower that will name abstract method arguments during decompilation");
         final OptionSpec<Void> ctrSpec = parser.acceptsAll(asList("create-inits", "c"), "Automatically inject synthetic <init> functions for classes with final fields and no constructors.");
         final OptionSpec<Void> parAnnSpec = parser.acceptsAll(asList("fix-param-annotations", "p"), "Attempts to fix parameter annotations that get shifted due to the compiler injecting synthetics");
+        final OptionSpec<Void> reverseSpec = parser.accepts("reverse", "Remap from the deobfuscated names back to the obfuscated ones, libraries must be deobfuscated too");
+        final OptionSpec<Void> singlePassSpec = parser.acceptsAll(asList("single-pass", "s"), "Run all class transformers in a single read/write pass per class, instead of one pass each. The classes are equivalent, but their constant pools may differ");
 
         final OptionSet options;
         try {
@@ -103,54 +168,145 @@ else if (options.has(versionSpec)) {
                     "the right to distribute modified versions."
             ).forEach(System.out::println);
         }
-        else if (options.has(mappingsSpec) && options.has(jarInSpec) && options.has(jarOutSpec)) {
-            final Path jarInPath = options.valueOf(jarInSpec);
-            final Path jarOutPath = options.valueOf(jarOutSpec);
-            System.out.println("Input: " + jarInPath);
-            System.out.println("Output: " + jarOutPath);
-            if (Files.notExists(jarInPath)) {
-                throw new RuntimeException("Input jar does not exist!");
+        else if (options.has(mappingsSpec) && (options.has(jarInSpec) && options.has(jarOutSpec) || options.has(batchSpec) || options.has(daemonSpec))) {
+            try {
+                Log.configure(logLevel(options.valueOf(logLevelSpec)), options.valueOf(logFileSpec));
+            }
+            catch (final IOException ex) {
+                throw new RuntimeException("Failed to open log file!", ex);
             }
 
-            final MappingFormat mappingFormat = options.valueOf(mappingFormatSpec);
-            final Path mappingsPath = options.valueOf(mappingsSpec);
-            if (Files.notExists(mappingsPath)) {
-                throw new RuntimeException("Input mappings does not exist!");
+            final List<Path[]> jobs = new ArrayList<>();
+            if (options.has(jarInSpec) && options.has(jarOutSpec)) {
+                if (Files.notExists(options.valueOf(jarInSpec))) {
+                    throw new RuntimeException("Input jar does not exist!");
+                }
+                jobs.add(new Path[] { options.valueOf(jarInSpec), options.valueOf(jarOutSpec) });
+            }
+            if (options.has(batchSpec)) {
+                jobs.addAll(readBatch(options.valueOf(batchSpec)));
             }
 
-            final MappingSet mappings;
-            try {
-                System.out.println("Format: " + mappingFormat);
-                System.out.println("Mappings: " + mappingsPath);
-                mappings = mappingFormat.read(mappingsPath);
+            if (options.has(reverseSpec) && (options.has(ctrSpec) || options.has(ffmetaSpec))) {
+                throw new RuntimeException("--create-inits and --fernflower-meta can't be used with --reverse!");
+            }
+
+            final String statsFormat = options.has(statsSpec) ? options.valueOf(statsSpec) : null;
+            if (statsFormat != null && !statsFormat.equals("table") && !statsFormat.equals("json")) {
+                throw new RuntimeException("Unknown stats format '" + statsFormat + "', expected 'table' or 'json'!");
+            }
+            final RemapStats stats = statsFormat != null ? new RemapStats(options.valueOf(statsSlowestSpec)) : null;
+            final Compression compression = options.has(compressionSpec) ? compression(options.valueOf(compressionSpec)) : null;
+
+            final List<Path> mappingsPaths = options.valuesOf(mappingsSpec);
+            final List<MappingFormat> mappingFormats = new ArrayList<>();
+            for (int x = 0; x < mappingsPaths.size(); x++) {
+                if (Files.notExists(mappingsPaths.get(x))) {
+                    throw new RuntimeException("Input mappings '" + mappingsPaths.get(x) + "' does not exist!");
+                }
+                // Later files without a format of their own use the last one given
+                final List<MappingFormat> given = options.valuesOf(mappingFormatSpec);
+                mappingFormats.add(given.get(Math.min(x, given.size() - 1)));
+            }
+
+            if (options.has(fromSpec) || options.has(toSpec)) {
+                if (mappingFormats.stream().noneMatch(f -> f instanceof TSrg2Format)) {
+                    throw new RuntimeException("Namespaces can only be selected for tsrg2 mappings!");
+                }
+                mappingFormats.replaceAll(f -> f instanceof TSrg2Format ? ((TSrg2Format) f).withNamespaces(options.valueOf(fromSpec), options.valueOf(toSpec)) : f);
+                Log.log("Namespaces: " + options.valueOf(fromSpec) + " -> " + options.valueOf(toSpec));
+            }
+
+            final List<MappingSet> sets = new ArrayList<>();
+            // Each file is hashed once, for both the mappings cache and the output cache's fingerprint
+            final List<String> mappingsKeys = new ArrayList<>();
+            try (RemapStats.Timer timer = stats != null ? stats.time("Read mappings") : null) {
+                for (int x = 0; x < mappingsPaths.size(); x++) {
+                    Log.log("Format: " + mappingFormats.get(x));
+                    Log.log("Mappings: " + mappingsPaths.get(x));
+                    if (options.has(mappingsCacheSpec) || options.has(cacheDirSpec))
+                        mappingsKeys.add(MappingsCache.key(mappingFormats.get(x), options.valueOf(fromSpec) + " " + options.valueOf(toSpec), mappingsPaths.get(x)));
+                    if (options.has(mappingsCacheSpec))
+                        sets.add(MappingsCache.read(options.valueOf(mappingsCacheSpec), mappingsKeys.get(x), mappingFormats.get(x), mappingsPaths.get(x)));
+                    else
+                        sets.add(mappingFormats.get(x).read(mappingsPaths.get(x)));
+                }
             }
             catch (final IOException ex) {
                 throw new RuntimeException("Failed to read input mappings!", ex);
             }
 
-            try (Atlas atlas = options.has(threadsSpec) ? new Atlas(options.valueOf(threadsSpec)) : new Atlas()) {
+            final MappingSet mappings;
+            if (sets.size() == 1) {
+                mappings = sets.get(0);
+            } else {
+                final ForkJoinPool pool = options.has(threadsSpec) ? new ForkJoinPool(options.valueOf(threadsSpec)) : ForkJoinPool.commonPool();
+                try (RemapStats.Timer timer = stats != null ? stats.time("Compose mappings") : null) {
+                    mappings = MappingComposer.compose(sets, pool);
+                } finally {
+                    if (pool != ForkJoinPool.commonPool())
+                        pool.shutdown();
+                }
+            }
+
+            try (JarRemapper remapper = new JarRemapper(mappings, options.valueOf(threadsSpec))) {
+                final Path libraryCache = options.valueOf(libraryCacheSpec);
+                final List<String> libraryHashes = new ArrayList<>();
                 for (Path lib : options.valuesOf(librarySpec)) {
-                    try {
-                        System.out.println("Library: " + lib);
-                        atlas.use(lib);
+                    try (RemapStats.Timer timer = stats != null ? stats.time("Open libraries") : null) {
+                        Log.log("Library: " + lib);
+                        if (libraryCache != null) {
+                            // The index already knows the library's hash, and only computes it again when the library changed
+                            final LibraryIndex index = LibraryIndex.open(libraryCache, lib);
+                            remapper.library(index);
+                            libraryHashes.add(Hashing.toHex(index.getHash()));
+                        } else {
+                            remapper.library(new JarClassProvider(lib));
+                            if (options.has(cacheDirSpec))
+                                libraryHashes.add(Hashing.toHex(Hashing.sha1(lib)));
+                        }
                     } catch (IOException ex) {
                         throw new RuntimeException("Failed to read library!", ex);
                     }
                 }
 
-                atlas.install(ctx -> new EnhancedRemappingTransformer(mappings, ctx, options.has(ffmetaSpec)));
-                if (options.has(ctrSpec)) {
-                    atlas.install(ctx -> new ConstructorInjector(ctx, mappings));
-                    System.out.println("Constructors");
-                }
-                if (options.has(parAnnSpec)) {
-                    atlas.install(ctx -> new ParameterAnnotationFixer());
-                    System.out.println("Parameter Annotations");
+                remapper.fernflowerMeta(options.has(ffmetaSpec))
+                        .createInits(options.has(ctrSpec))
+                        .fixParamAnnotations(options.has(parAnnSpec))
+                        .singlePass(options.has(singlePassSpec))
+                        .reverse(options.has(reverseSpec))
+                        .nestedJars(options.has(nestedJarsSpec) ? options.valuesOf(nestedJarsSpec) : Collections.emptyList())
+                        .remapResources(options.valuesOf(remapResourcesSpec))
+                        .compression(compression)
+                        .largestFirst(options.has(largestFirstSpec))
+                        .virtualThreads(options.has(virtualThreadsSpec))
+                        .inFlight(options.has(inFlightSpec) ? options.valueOf(inFlightSpec) * 1024L * 1024L : 0)
+                        .stats(stats);
+                if (options.has(cacheDirSpec)) {
+                    remapper.cache(options.valueOf(cacheDirSpec), outputFingerprint(mappingsKeys, libraryHashes), options.valueOf(cacheMaxSizeSpec) * 1024L * 1024L);
                 }
 
-                atlas.run(jarInPath, jarOutPath);
+                for (final Path[] job : jobs) {
+                    remapper.remap(job[0], job[1]);
+                }
+                if (options.has(daemonSpec)) {
+                    final int port = options.valueOf(daemonSpec);
+                    final Path tokenFile = options.has(daemonTokenSpec) ? options.valueOf(daemonTokenSpec)
+                            : Paths.get(System.getProperty("user.home"), ".vignette", "daemon-" + port + ".token");
+                    new RemapServer(remapper).serve(port, tokenFile);
+                }
 
-                System.out.println("Processing Complete");
+                Log.log("Processing Complete");
+                Log.close();
+                if (stats != null) {
+                    final String report = statsFormat.equals("json") ? stats.toJson() : stats.toTable();
+                    if (options.has(statsFileSpec)) {
+                        Files.write(options.valueOf(statsFileSpec), report.getBytes(StandardCharsets.UTF_8));
+                    }
+                    else {
+                        System.out.print(report);
+                    }
+                }
             }
             catch (final IOException ex) {
                 throw new RuntimeException("Failed to remap artifact!", ex);
@@ -168,6 +324,49 @@ else if (options.has(mappingsSpec) && options.has(jarInSpec) && options.has(jarO
         }
     }
 
+    private static Log.Level logLevel(final String name) {
+        for (final Log.Level level : Log.Level.values()) {
+            if (level.name().equalsIgnoreCase(name)) {
+                return level;
+            }
+        }
+        throw new RuntimeException("Unknown log level '" + name + "', expected 'quiet', 'normal' or 'debug'!");
+    }
+
+    private static Compression compression(final String name) {
+        for (final Compression compression : Compression.values()) {
+            if (compression.name().equalsIgnoreCase(name)) {
+                return compression;
+            }
+        }
+        throw new RuntimeException("Unknown compression '" + name + "', expected 'store', 'fast', 'default' or 'max'!");
+    }
+
+    private static List<Path[]> readBatch(final Path manifest) {
+        final List<Path[]> ret = new ArrayList<>();
+        try (Stream<String> stream = Files.lines(manifest)) {
+            stream.map(String::trim).filter(line -> !line.isEmpty() && !line.startsWith("#")).forEach(line -> {
+                final String[] pts = line.split("\t");
+                if (pts.length != 2)
+                    throw new IllegalArgumentException("Invalid batch line, expected '<jar-in><tab><jar-out>': " + line);
+                ret.add(new Path[] { Paths.get(pts[0]), Paths.get(pts[1]) });
+            });
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read batch file '" + manifest + "'", e);
+        }
+        return ret;
+    }
+
+    // Identifies the mappings and libraries for the output cache, JarRemapper adds the rest
+    private static String outputFingerprint(final List<String> mappingsKeys, final List<String> libraryHashes) {
+        final StringBuilder ret = new StringBuilder("2");
+        for (final String key : mappingsKeys)
+            ret.append(' ').append(key);
+        for (final String hash : libraryHashes)
+            ret.append(' ').append(hash);
+        return ret.toString();
+    }
+
     private static String[] enhanceArgs(String[] args) {
         List<String> params = new ArrayList<>();
         for (int x = 0; x < args.length; x++) {
@@ -0,0 +1,164 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.cadixdev.vignette;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a zip from entries that have already been compressed, which
+ * {@link java.util.zip.ZipOutputStream} can't do, so the compression can
+ * happen on the workers and only the writing in order is left to do
+ * here. Sizes and CRCs are known up front, so every entry gets a
+ * complete local header and no data descriptor. Falls back to Zip64 for
+ * the central directory past 65535 entries or 4GB.
+ *
+ * @since 0.2.0
+ */
+final class ZipWriter implements Closeable {
+
+    private static final int LOCAL = 0x04034b50;
+    private static final int CENTRAL = 0x02014b50;
+    private static final int END = 0x06054b50;
+    private static final int ZIP64_END = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int UTF8 = 1 << 11;
+    private static final long MAX32 = 0xFFFFFFFFL;
+    private static final int MAX16 = 0xFFFF;
+
+    private final OutputStream out;
+    private final ByteArrayOutputStream central = new ByteArrayOutputStream();
+    private final ByteBuffer header = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+    private long offset;
+    private long count;
+
+    ZipWriter(final OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * @param name The entry name, ending in {@code /} for a directory
+     * @param time The modification time, or {@code -1} for now
+     * @param method {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+     * @param crc The CRC-32 of the uncompressed data
+     * @param size The uncompressed size
+     * @param data The data as it's stored, compressed or not
+     * @param length How much of the data to write
+     * @throws IOException If it can't be written
+     */
+    void write(final String name, final long time, final int method, final long crc, final long size, final byte[] data, final int length) throws IOException {
+        final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        final long dosTime = dosTime(time == -1 ? System.currentTimeMillis() : time);
+
+        ((Buffer) this.header).clear();
+        this.header.putInt(LOCAL);
+        this.common(20, method, dosTime, crc, length, size, nameBytes.length);
+        this.header.putShort((short) 0); // Extra
+        this.out.write(this.header.array(), 0, this.header.position());
+        this.out.write(nameBytes);
+
+        final boolean zip64 = this.offset >= MAX32;
+        ((Buffer) this.header).clear();
+        this.header.putInt(CENTRAL);
+        this.header.putShort((short) (zip64 ? 45 : 20)); // Made by
+        this.common(zip64 ? 45 : 20, method, dosTime, crc, length, size, nameBytes.length);
+        this.header.putShort((short) (zip64 ? 12 : 0)); // Extra
+        this.header.putShort((short) 0); // Comment
+        this.header.putShort((short) 0); // Disk
+        this.header.putShort((short) 0); // Internal attributes
+        this.header.putInt(0); // External attributes
+        this.header.putInt((int) Math.min(this.offset, MAX32));
+        this.central.write(this.header.array(), 0, this.header.position());
+        this.central.write(nameBytes);
+        if (zip64) {
+            ((Buffer) this.header).clear();
+            this.header.putShort((short) 1); // Zip64 extended information
+            this.header.putShort((short) 8);
+            this.header.putLong(this.offset);
+            this.central.write(this.header.array(), 0, this.header.position());
+        }
+
+        this.out.write(data, 0, length);
+        this.offset += 30 + nameBytes.length + length;
+        this.count++;
+    }
+
+    // From the version needed to extract to the length of the name, the same in both headers
+    private void common(final int version, final int method, final long dosTime, final long crc, final long compressed, final long size, final int nameLength) {
+        this.header.putShort((short) version); // Needed to extract, the sizes never need Zip64 but the offset might
+        this.header.putShort((short) UTF8);
+        this.header.putShort((short) method);
+        this.header.putInt((int) dosTime);
+        this.header.putInt((int) crc);
+        this.header.putInt((int) compressed);
+        this.header.putInt((int) size);
+        this.header.putShort((short) nameLength);
+    }
+
+    @Override
+    public void close() throws IOException {
+        final long start = this.offset;
+        final long size = this.central.size();
+        this.central.writeTo(this.out);
+
+        if (this.count >= MAX16 || start >= MAX32 || size >= MAX32) {
+            final long end = start + size;
+            ((Buffer) this.header).clear();
+            this.header.putInt(ZIP64_END);
+            this.header.putLong(44); // Size of the rest of the record
+            this.header.putShort((short) 45); // Made by
+            this.header.putShort((short) 45); // Needed
+            this.header.putInt(0); // Disk
+            this.header.putInt(0); // Disk with the central directory
+            this.header.putLong(this.count);
+            this.header.putLong(this.count);
+            this.header.putLong(size);
+            this.header.putLong(start);
+            this.out.write(this.header.array(), 0, this.header.position());
+
+            ((Buffer) this.header).clear();
+            this.header.putInt(ZIP64_LOCATOR);
+            this.header.putInt(0); // Disk with the Zip64 end record
+            this.header.putLong(end);
+            this.header.putInt(1); // Disks
+            this.out.write(this.header.array(), 0, this.header.position());
+        }
+
+        ((Buffer) this.header).clear();
+        this.header.putInt(END);
+        this.header.putShort((short) 0); // Disk
+        this.header.putShort((short) 0); // Disk with the central directory
+        this.header.putShort((short) Math.min(this.count, MAX16));
+        this.header.putShort((short) Math.min(this.count, MAX16));
+        this.header.putInt((int) Math.min(size, MAX32));
+        this.header.putInt((int) Math.min(start, MAX32));
+        this.header.putShort((short) 0); // Comment
+        this.out.write(this.header.array(), 0, this.header.position());
+        this.out.close();
+    }
+
+    // The same local time and pre-1980 floor as ZipEntry
+    private static long dosTime(final long time) {
+        final LocalDateTime date = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        if (date.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (long) (date.getYear() - 1980) << 25 | date.getMonthValue() << 21 | date.getDayOfMonth() << 16
+                | date.getHour() << 11 | date.getMinute() << 5 | date.getSecond() >> 1;
+    }
+
+}
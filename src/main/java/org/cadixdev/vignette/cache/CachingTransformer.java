@@ -0,0 +1,416 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.cadixdev.vignette.cache;
+
+import net.minecraftforge.lex.EnhancedRemappingTransformer;
+import net.minecraftforge.lex.Log;
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.cadixdev.bombe.jar.AbstractJarEntry;
+import org.cadixdev.bombe.jar.JarClassEntry;
+import org.cadixdev.bombe.jar.JarEntryTransformer;
+import org.cadixdev.bombe.jar.JarManifestEntry;
+import org.cadixdev.bombe.jar.JarResourceEntry;
+import org.cadixdev.bombe.jar.JarServiceProviderConfigurationEntry;
+import org.cadixdev.vignette.util.Hashing;
+import org.objectweb.asm.ClassReader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs a chain of transformers over each entry, reusing the result for
+ * any class that has already been transformed the same way in an
+ * earlier run.
+ * <p>
+ * Classes are keyed on their contents, a fingerprint of the mappings,
+ * the enabled transformers and the libraries, and the hierarchy of every
+ * class they reference: each of those classes' superclass, interfaces
+ * and member signatures, up to the top. How a class is remapped depends
+ * on nothing else in the jar, so changing one class only invalidates it
+ * and the classes that reference it. The hierarchies come from the same
+ * inheritance provider the remapper resolves against, so they're read
+ * lazily and only once per run. The whole chain has to sit behind one
+ * transformer, as Atlas would otherwise run the remaining transformers
+ * over a cached result again. What a class adds to the FernFlower
+ * metadata is cached with it and handed back to the remapper on a hit.
+ * <p>
+ * Hits refresh the cached file's timestamp, so {@link #evict(Path, long)}
+ * can drop the least recently used classes once the cache grows too big.
+ *
+ * @since 0.2.0
+ */
+public final class CachingTransformer implements JarEntryTransformer {
+
+    private static final int MAGIC = 0x56434C53; // VCLS
+
+    /**
+     * Deletes the least recently used classes until the cache is back
+     * under the given size, with some room to spare so this doesn't have
+     * to run again straight away. Only files named the way cached classes
+     * are count, so other caches sharing the directory, such as the
+     * mappings and library caches, are left alone.
+     *
+     * @param cacheDir The cache directory
+     * @param maxBytes The most the cached classes may take up
+     * @throws IOException If the cache can't be listed
+     */
+    public static void evict(final Path cacheDir, final long maxBytes) throws IOException {
+        if (Files.notExists(cacheDir)) {
+            return;
+        }
+        final List<Path> files;
+        try (Stream<Path> walk = Files.walk(cacheDir, 2)) {
+            files = walk.filter(file -> isCachedClass(cacheDir, file) && Files.isRegularFile(file)).collect(Collectors.toList());
+        }
+        final Map<Path, BasicFileAttributes> attrs = new HashMap<>();
+        long total = 0;
+        for (final Path file : files) {
+            try {
+                final BasicFileAttributes attr = Files.readAttributes(file, BasicFileAttributes.class);
+                attrs.put(file, attr);
+                total += attr.size();
+            }
+            catch (final NoSuchFileException ex) {
+                // Evicted by another run meanwhile
+            }
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+
+        final List<Path> oldest = new ArrayList<>(attrs.keySet());
+        oldest.sort(Comparator.comparing(file -> attrs.get(file).lastModifiedTime()));
+        final long target = maxBytes - maxBytes / 10;
+        int removed = 0;
+        for (final Path file : oldest) {
+            if (total <= target) {
+                break;
+            }
+            if (Files.deleteIfExists(file)) {
+                removed++;
+            }
+            total -= attrs.get(file).size();
+        }
+        Log.log("Output cache: evicted " + removed + " classes, " + total + " bytes left");
+    }
+
+    // '<first two of key>/<key>' right under the cache directory, the key being a SHA-1 in hex
+    private static boolean isCachedClass(final Path cacheDir, final Path file) {
+        if (file.getNameCount() != cacheDir.getNameCount() + 2) {
+            return false;
+        }
+        final String dir = file.getParent().getFileName().toString();
+        final String name = file.getFileName().toString();
+        if (name.length() != 40 || !name.startsWith(dir) || dir.length() != 2) {
+            return false;
+        }
+        for (int x = 0; x < name.length(); x++) {
+            if (Character.digit(name.charAt(x), 16) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private final Path cacheDir;
+    private final byte[] fingerprint;
+    private final List<JarEntryTransformer> chain;
+    private final EnhancedRemappingTransformer remapper;
+    private final InheritanceProvider inheritance;
+    // A digest of each class's hierarchy, up to the top, filled in as classes reference them
+    private final Map<String, byte[]> hierarchies = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder written = new LongAdder();
+
+    /**
+     * @param cacheDir The cache directory
+     * @param fingerprint Everything besides a class's own contents that
+     *                    its output depends on
+     * @param chain The transformers to run, in order
+     * @param remapper The remapper in the chain, to keep the FernFlower
+     *                 metadata complete on cache hits
+     * @param inheritance The inheritance provider the chain resolves
+     *                    against
+     */
+    public CachingTransformer(final Path cacheDir, final String fingerprint, final List<JarEntryTransformer> chain, final EnhancedRemappingTransformer remapper,
+            final InheritanceProvider inheritance) {
+        this.cacheDir = cacheDir;
+        this.fingerprint = fingerprint.getBytes(StandardCharsets.UTF_8);
+        this.chain = chain;
+        this.remapper = remapper;
+        this.inheritance = inheritance;
+    }
+
+    /**
+     * @return A one line summary of cache hits and misses
+     */
+    public String getStats() {
+        return this.hits.sum() + " hits, " + this.misses.sum() + " misses";
+    }
+
+    /**
+     * @return The bytes of cached classes written so far
+     */
+    public long getWrittenBytes() {
+        return this.written.sum();
+    }
+
+    @Override
+    public JarClassEntry transform(final JarClassEntry entry) {
+        final MessageDigest digest = Hashing.sha1();
+        digest.update(this.fingerprint);
+        digest.update(entry.getName().getBytes(StandardCharsets.UTF_8));
+        digest.update(entry.getContents());
+        for (final String ref : referencedClasses(entry.getContents())) {
+            digest.update(ref.getBytes(StandardCharsets.UTF_8));
+            digest.update(this.hierarchy(ref, new HashSet<>()));
+        }
+        final String key = Hashing.toHex(digest.digest());
+        final Path file = this.cacheDir.resolve(key.substring(0, 2)).resolve(key);
+
+        final JarClassEntry cached = this.read(file, entry.getTime());
+        if (cached != null) {
+            this.hits.increment();
+            try {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            }
+            catch (final IOException ex) {
+                // Evicted meanwhile, or read only, only the eviction order suffers
+            }
+            return cached;
+        }
+
+        this.misses.increment();
+        final int mark = this.remapper == null ? 0 : this.remapper.markAbstractParams();
+        JarClassEntry ret = entry;
+        for (final JarEntryTransformer transformer : this.chain) {
+            ret = transformer.transform(ret);
+            if (ret == null) {
+                return null;
+            }
+        }
+        this.write(file, ret, mark);
+        return ret;
+    }
+
+    /*
+     * Every class whose hierarchy the remapping could depend on: the
+     * class itself and its parents, the owners of the members it uses and
+     * the types in their descriptors, which covers the interfaces lambdas
+     * are bound to. Straight from the constant pool, without parsing the
+     * rest of the class.
+     */
+    private static Set<String> referencedClasses(final byte[] data) {
+        final Set<String> ret = new TreeSet<>();
+        final ClassReader reader;
+        try {
+            reader = new ClassReader(data);
+        }
+        catch (final RuntimeException ex) {
+            return ret; // Malformed, keyed on its bytes alone, the transformers will deal with it
+        }
+        final char[] buf = new char[reader.getMaxStringLength()];
+        for (int item = 1; item < reader.getItemCount(); item++) {
+            final int offset = reader.getItem(item);
+            if (offset == 0) {
+                continue; // The second slot of a long or double
+            }
+            switch (reader.readByte(offset - 1)) {
+                case 7: // Class
+                    addTypes(ret, reader.readUTF8(offset, buf), true);
+                    break;
+                case 12: // NameAndType
+                    addTypes(ret, reader.readUTF8(offset + 2, buf), false);
+                    break;
+                case 16: // MethodType
+                    addTypes(ret, reader.readUTF8(offset, buf), false);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return ret;
+    }
+
+    // A class entry is either an internal name or an array descriptor, everything else is a descriptor
+    private static void addTypes(final Set<String> types, final String value, final boolean internalName) {
+        if (internalName && !value.startsWith("[")) {
+            types.add(value);
+            return;
+        }
+        for (int start = value.indexOf('L'); start != -1; start = value.indexOf('L', start + 1)) {
+            final int end = value.indexOf(';', start);
+            if (end == -1) {
+                return;
+            }
+            if (start == 0 || "([;)".indexOf(value.charAt(start - 1)) != -1) {
+                types.add(value.substring(start + 1, end));
+                start = end;
+            }
+        }
+    }
+
+    private byte[] hierarchy(final String name, final Set<String> visiting) {
+        final byte[] cached = this.hierarchies.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        if (!visiting.add(name)) {
+            return new byte[0]; // A cycle, which the JVM wouldn't load either
+        }
+
+        final MessageDigest digest = Hashing.sha1();
+        final Optional<InheritanceProvider.ClassInfo> info = this.inheritance.provide(name);
+        if (info.isPresent()) {
+            final InheritanceProvider.ClassInfo cls = info.get();
+            final List<String> members = new ArrayList<>();
+            cls.getFields().forEach((field, type) -> members.add(field.getName() + ':' + field.getType().map(Object::toString).orElse("") + ' ' + type));
+            cls.getMethods().forEach((method, type) -> members.add(method.getName() + method.getDescriptor() + ' ' + type));
+            Collections.sort(members);
+            digest.update((cls.isInterface() + " " + cls.getSuperName() + ' ' + cls.getInterfaces() + ' ' + members).getBytes(StandardCharsets.UTF_8));
+            if (cls.getSuperName() != null) {
+                digest.update(this.hierarchy(cls.getSuperName(), visiting));
+            }
+            for (final String itf : cls.getInterfaces()) {
+                digest.update(this.hierarchy(itf, visiting));
+            }
+        }
+        visiting.remove(name);
+
+        final byte[] ret = digest.digest();
+        this.hierarchies.put(name, ret);
+        return ret;
+    }
+
+    private JarClassEntry read(final Path file, final long time) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a cached class");
+            }
+            final String name = in.readUTF();
+            final byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            final List<String> lines = new ArrayList<>();
+            for (int x = in.readInt(); x > 0; x--) {
+                lines.add(in.readUTF());
+            }
+
+            if (this.remapper != null) {
+                this.remapper.putAbstractParams(className(name), lines);
+            }
+            return new JarClassEntry(name, time, data);
+        }
+        catch (final NoSuchFileException ex) {
+            return null;
+        }
+        catch (final IOException ex) {
+            Log.log("Ignoring unreadable cached class " + file + ": " + ex);
+            return null;
+        }
+    }
+
+    private void write(final Path file, final JarClassEntry entry, final int mark) {
+        final List<String> lines = this.remapper == null ? new ArrayList<>() : this.remapper.getAbstractParams(mark);
+        try {
+            Files.createDirectories(file.getParent());
+            final Path tmp = Files.createTempFile(file.getParent(), "class", ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                    out.writeInt(MAGIC);
+                    out.writeUTF(entry.getName());
+                    out.writeInt(entry.getContents().length);
+                    out.write(entry.getContents());
+                    out.writeInt(lines.size());
+                    for (final String line : lines) {
+                        out.writeUTF(line);
+                    }
+                }
+                this.written.add(Files.size(tmp));
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        catch (final IOException ex) {
+            Log.log("Failed to cache " + entry.getName() + ": " + ex);
+        }
+    }
+
+    private static String className(final String entryName) {
+        return entryName.substring(0, entryName.length() - ".class".length());
+    }
+
+    @Override
+    public JarResourceEntry transform(JarResourceEntry entry) {
+        for (final JarEntryTransformer transformer : this.chain) {
+            if (entry == null) {
+                return null;
+            }
+            entry = transformer.transform(entry);
+        }
+        return entry;
+    }
+
+    @Override
+    public JarManifestEntry transform(JarManifestEntry entry) {
+        for (final JarEntryTransformer transformer : this.chain) {
+            if (entry == null) {
+                return null;
+            }
+            entry = transformer.transform(entry);
+        }
+        return entry;
+    }
+
+    @Override
+    public JarServiceProviderConfigurationEntry transform(JarServiceProviderConfigurationEntry entry) {
+        for (final JarEntryTransformer transformer : this.chain) {
+            if (entry == null) {
+                return null;
+            }
+            entry = transformer.transform(entry);
+        }
+        return entry;
+    }
+
+    @Override
+    public List<AbstractJarEntry> additions() {
+        final List<AbstractJarEntry> ret = new ArrayList<>();
+        for (final JarEntryTransformer transformer : this.chain) {
+            ret.addAll(transformer.additions());
+        }
+        return ret;
+    }
+
+}
@@ -0,0 +1,348 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.cadixdev.vignette.cache;
+
+import org.cadixdev.bombe.asm.jar.ClassProvider;
+import org.cadixdev.vignette.util.Hashing;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A {@link ClassProvider} for a library jar, backed by a memory-mapped
+ * index file holding only what inheritance analysis needs: each class's
+ * name, access, superclass, interfaces and its members' signatures and
+ * access flags.
+ * <p>
+ * The index is keyed on the library's path, size and modification time,
+ * with a content hash as the tie-breaker when only the timestamp moved,
+ * and is rebuilt whenever the library actually changed. Records are
+ * sorted by name behind a table of their offsets, so opening an index
+ * reads nothing but its header and a lookup is a binary search over the
+ * mapping. Classes are handed out as skeleton class files with no code,
+ * which is all the inheritance provider reads, each built once.
+ *
+ * @since 0.2.0
+ */
+public final class LibraryIndex implements ClassProvider {
+
+    private static final int MAGIC = 0x564C4942; // VLIB
+    private static final int VERSION = 2;
+    private static final int HASH_OFFSET = 4 + 4 + 8 + 8;
+    private static final int HEADER_SIZE = HASH_OFFSET + 20 + 4;
+
+    /**
+     * Opens the index for the given library, building or refreshing it in
+     * the cache directory first if needed.
+     *
+     * @param cacheDir The cache directory
+     * @param library The library jar
+     * @return The index
+     * @throws IOException If the library or the index can't be read or written
+     */
+    public static LibraryIndex open(final Path cacheDir, final Path library) throws IOException {
+        final Path file = cacheDir.resolve(Hashing.sha1(library.toAbsolutePath().normalize().toString()) + ".idx");
+        final long size = Files.size(library);
+        final long mtime = Files.getLastModifiedTime(library).toMillis();
+
+        // Checked, and stamped, through the channel before anything is mapped, a mapped file can't be written or replaced on Windows
+        if (Files.exists(file) && isCurrent(file, library, size, mtime)) {
+            return new LibraryIndex(map(file));
+        }
+
+        Files.createDirectories(cacheDir);
+        final Path tmp = Files.createTempFile(cacheDir, "library", ".tmp");
+        try {
+            write(library, size, mtime, tmp);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(tmp);
+        }
+        return new LibraryIndex(map(file));
+    }
+
+    private static boolean isCurrent(final Path file, final Path library, final long size, final long mtime) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (header.hasRemaining()) {
+                if (channel.read(header) == -1) {
+                    return false;
+                }
+            }
+        }
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getLong(8) != size) {
+            return false;
+        }
+        if (header.getLong(16) == mtime) {
+            return true;
+        }
+
+        // Touched but possibly not changed, compare content before re-indexing
+        final byte[] hash = new byte[20];
+        ((Buffer) header).position(HASH_OFFSET);
+        header.get(hash);
+        if (!Arrays.equals(hash, Hashing.sha1(library))) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            final ByteBuffer stamp = ByteBuffer.allocate(8).putLong(0, mtime);
+            channel.write(stamp, 16);
+        }
+        return true;
+    }
+
+    private static ByteBuffer map(final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static void write(final Path library, final long size, final long mtime, final Path file) throws IOException {
+        final byte[] hash = Hashing.sha1(library);
+        final List<byte[]> names = new ArrayList<>();
+        final List<byte[]> records = new ArrayList<>();
+
+        try (ZipFile zip = new ZipFile(library.toFile())) {
+            for (final Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+                final ZipEntry entry = entries.nextElement();
+                // Skip multi-release overrides, module descriptors and the like, they share names with the real classes
+                if (entry.isDirectory() || !entry.getName().endsWith(".class") || entry.getName().startsWith("META-INF/") || entry.getName().endsWith("-info.class")) {
+                    continue;
+                }
+                try (InputStream in = zip.getInputStream(entry)) {
+                    final ClassReader reader = new ClassReader(in);
+                    names.add(reader.getClassName().getBytes(StandardCharsets.UTF_8));
+                    records.add(record(reader));
+                }
+            }
+        }
+
+        // Sorted by name for the binary search, stable so the first of two classes with the same name wins as before
+        final List<Integer> order = new ArrayList<>();
+        for (int x = 0; x < records.size(); x++) {
+            order.add(x);
+        }
+        order.sort((a, b) -> compare(names.get(a), names.get(b)));
+        final List<byte[]> sorted = new ArrayList<>();
+        for (int x = 0; x < order.size(); x++) {
+            if (x == 0 || compare(names.get(order.get(x - 1)), names.get(order.get(x))) != 0) {
+                sorted.add(records.get(order.get(x)));
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(size);
+            out.writeLong(mtime);
+            out.write(hash);
+            out.writeInt(sorted.size());
+            int offset = HEADER_SIZE + sorted.size() * 4;
+            for (final byte[] record : sorted) {
+                out.writeInt(offset);
+                offset += record.length;
+            }
+            for (final byte[] record : sorted) {
+                out.write(record);
+            }
+        }
+    }
+
+    private static int compare(final byte[] a, final byte[] b) {
+        for (int x = 0; x < Math.min(a.length, b.length); x++) {
+            final int diff = (a[x] & 0xFF) - (b[x] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * Record layout: name, length of the rest, access, superclass ("" for
+     * none), interfaces, then fields and methods as (access, name, descriptor).
+     */
+    private static byte[] record(final ClassReader reader) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(body);
+        final List<String[]> fields = new ArrayList<>();
+        final List<String[]> methods = new ArrayList<>();
+
+        reader.accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public FieldVisitor visitField(final int access, final String name, final String descriptor, final String signature, final Object value) {
+                fields.add(new String[] { Integer.toString(access), name, descriptor });
+                return null;
+            }
+
+            @Override
+            public MethodVisitor visitMethod(final int access, final String name, final String descriptor, final String signature, final String[] exceptions) {
+                methods.add(new String[] { Integer.toString(access), name, descriptor });
+                return null;
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+        out.writeInt(reader.getAccess());
+        writeString(out, reader.getSuperName() == null ? "" : reader.getSuperName());
+        out.writeShort(reader.getInterfaces().length);
+        for (final String itf : reader.getInterfaces()) {
+            writeString(out, itf);
+        }
+        for (final List<String[]> members : Arrays.asList(fields, methods)) {
+            out.writeShort(members.size());
+            for (final String[] member : members) {
+                out.writeInt(Integer.parseInt(member[0]));
+                writeString(out, member[1]);
+                writeString(out, member[2]);
+            }
+        }
+
+        final ByteArrayOutputStream ret = new ByteArrayOutputStream(body.size() + 64);
+        final DataOutputStream header = new DataOutputStream(ret);
+        writeString(header, reader.getClassName());
+        header.writeInt(body.size());
+        body.writeTo(ret);
+        return ret.toByteArray();
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] data = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(data.length);
+        out.write(data);
+    }
+
+    private static String readString(final ByteBuffer buf) {
+        final int len = buf.getShort() & 0xFFFF;
+        final byte[] data = new byte[len];
+        buf.get(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private static final byte[] MISSING = new byte[0];
+
+    private final ByteBuffer buffer;
+    private final int count;
+    // Skeletons already built, and names looked up that aren't here, which is most of them with several libraries
+    private final Map<String, byte[]> built = new ConcurrentHashMap<>();
+
+    private LibraryIndex(final ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.count = buffer.getInt(HEADER_SIZE - 4);
+    }
+
+    /**
+     * @return The number of classes in this library
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * @return The SHA-1 of the library's contents, as of when it was
+     *         indexed
+     */
+    public byte[] getHash() {
+        final byte[] ret = new byte[20];
+        for (int x = 0; x < ret.length; x++) {
+            ret[x] = this.buffer.get(HASH_OFFSET + x);
+        }
+        return ret;
+    }
+
+    @Override
+    public byte[] get(final String klass) {
+        byte[] ret = this.built.get(klass);
+        if (ret == null) {
+            final int offset = this.find(klass.getBytes(StandardCharsets.UTF_8));
+            ret = offset == -1 ? MISSING : this.build(klass, offset);
+            this.built.put(klass, ret);
+        }
+        return ret == MISSING ? null : ret;
+    }
+
+    // The offset of the record's body, from a binary search of the sorted table, read in place
+    private int find(final byte[] name) {
+        int low = 0;
+        int high = this.count - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int offset = this.buffer.getInt(HEADER_SIZE + mid * 4);
+            final int cmp = this.compareName(offset, name);
+            if (cmp < 0) {
+                low = mid + 1;
+            }
+            else if (cmp > 0) {
+                high = mid - 1;
+            }
+            else {
+                return offset + 2 + (this.buffer.getShort(offset) & 0xFFFF) + 4;
+            }
+        }
+        return -1;
+    }
+
+    private int compareName(final int offset, final byte[] name) {
+        final int len = this.buffer.getShort(offset) & 0xFFFF;
+        for (int x = 0; x < Math.min(len, name.length); x++) {
+            final int diff = (this.buffer.get(offset + 2 + x) & 0xFF) - (name[x] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return len - name.length;
+    }
+
+    private byte[] build(final String klass, final int offset) {
+        final ByteBuffer buf = this.buffer.duplicate();
+        ((Buffer) buf).position(offset);
+
+        final int access = buf.getInt();
+        final String superName = readString(buf);
+        final String[] interfaces = new String[buf.getShort() & 0xFFFF];
+        for (int x = 0; x < interfaces.length; x++) {
+            interfaces[x] = readString(buf);
+        }
+
+        final ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, access & 0xFFFF, klass, null, superName.isEmpty() ? null : superName, interfaces);
+        for (int x = buf.getShort() & 0xFFFF; x > 0; x--) {
+            writer.visitField(buf.getInt(), readString(buf), readString(buf), null, null).visitEnd();
+        }
+        for (int x = buf.getShort() & 0xFFFF; x > 0; x--) {
+            writer.visitMethod(buf.getInt(), readString(buf), readString(buf), null, null).visitEnd();
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.cadixdev.vignette.cache;
+
+import net.minecraftforge.lex.BinaryMappingFormat;
+import net.minecraftforge.lex.Log;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.io.MappingFormat;
+import org.cadixdev.vignette.util.Hashing;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Keeps a {@link BinaryMappingFormat binary} copy of each mapping file
+ * that has been read, keyed on the file's content and how it was read,
+ * so later runs can skip parsing the text format.
+ *
+ * @since 0.2.0
+ */
+public final class MappingsCache {
+
+    private static final BinaryMappingFormat BINARY = new BinaryMappingFormat();
+
+    /**
+     * Identifies a mapping file by its content and how it's read, also
+     * usable to fingerprint anything else derived from the mappings.
+     *
+     * @param format The format of the mappings
+     * @param variant Anything besides the format that changes how the file
+     *                is read, such as the selected namespaces
+     * @param mappingsPath The mapping file
+     * @return The key
+     * @throws IOException If the mappings can't be read
+     */
+    public static String key(final MappingFormat format, final String variant, final Path mappingsPath) throws IOException {
+        return Hashing.toHex(Hashing.sha1(mappingsPath)) + ' ' + format + ' ' + variant;
+    }
+
+    /**
+     * Reads the given mappings, from the cache if they have been read the
+     * same way before.
+     *
+     * @param cacheDir The cache directory
+     * @param key The mappings' {@link #key(MappingFormat, String, Path) key}
+     * @param format The format of the mappings
+     * @param mappingsPath The mapping file
+     * @return The mappings
+     * @throws IOException If the mappings or the cache can't be read or written
+     */
+    public static MappingSet read(final Path cacheDir, final String key, final MappingFormat format, final Path mappingsPath) throws IOException {
+        final Path file = cacheDir.resolve(Hashing.sha1(key) + ".vmap");
+
+        if (Files.exists(file)) {
+            try {
+                return BINARY.read(file);
+            }
+            catch (final IOException | RuntimeException ex) {
+                Log.log("Ignoring unreadable mappings cache " + file + ": " + ex);
+            }
+        }
+
+        final MappingSet mappings = format.read(mappingsPath);
+
+        Files.createDirectories(cacheDir);
+        final Path tmp = Files.createTempFile(cacheDir, "mappings", ".tmp");
+        try {
+            BINARY.write(mappings, tmp);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(tmp);
+        }
+        return mappings;
+    }
+
+    private MappingsCache() {
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.cadixdev.vignette.stats;
+
+import org.cadixdev.bombe.jar.AbstractJarEntry;
+import org.cadixdev.bombe.jar.JarClassEntry;
+import org.cadixdev.bombe.jar.JarEntryTransformer;
+import org.cadixdev.bombe.jar.JarManifestEntry;
+import org.cadixdev.bombe.jar.JarResourceEntry;
+import org.cadixdev.bombe.jar.JarServiceProviderConfigurationEntry;
+
+import java.util.List;
+
+/**
+ * Records the work done by a transformer, see
+ * {@link RemapStats#instrument(String, JarEntryTransformer)}.
+ * <p>
+ * Only classes and resources count towards the bytes in and out, the
+ * manifest and service provider entries would have to be written out
+ * again to measure them.
+ *
+ * @since 0.2.0
+ */
+final class InstrumentedTransformer implements JarEntryTransformer {
+
+    private final RemapStats stats;
+    private final String name;
+    private final RemapStats.Counters counters;
+    private final JarEntryTransformer transformer;
+
+    InstrumentedTransformer(final RemapStats stats, final String name, final RemapStats.Counters counters, final JarEntryTransformer transformer) {
+        this.stats = stats;
+        this.name = name;
+        this.counters = counters;
+        this.transformer = transformer;
+    }
+
+    @Override
+    public JarClassEntry transform(final JarClassEntry entry) {
+        final long wall = System.nanoTime();
+        final long cpu = RemapStats.cpuTime();
+        final long allocated = RemapStats.allocatedBytes();
+        final JarClassEntry ret = this.transformer.transform(entry);
+        final long time = this.record(wall, cpu, allocated, entry, ret);
+        this.stats.recordClass(this.name, entry.getName(), time);
+        return ret;
+    }
+
+    @Override
+    public JarResourceEntry transform(final JarResourceEntry entry) {
+        final long wall = System.nanoTime();
+        final long cpu = RemapStats.cpuTime();
+        final long allocated = RemapStats.allocatedBytes();
+        final JarResourceEntry ret = this.transformer.transform(entry);
+        this.record(wall, cpu, allocated, entry, ret);
+        return ret;
+    }
+
+    @Override
+    public JarManifestEntry transform(final JarManifestEntry entry) {
+        final long wall = System.nanoTime();
+        final long cpu = RemapStats.cpuTime();
+        final long allocated = RemapStats.allocatedBytes();
+        final JarManifestEntry ret = this.transformer.transform(entry);
+        this.record(wall, cpu, allocated, null, null);
+        return ret;
+    }
+
+    @Override
+    public JarServiceProviderConfigurationEntry transform(final JarServiceProviderConfigurationEntry entry) {
+        final long wall = System.nanoTime();
+        final long cpu = RemapStats.cpuTime();
+        final long allocated = RemapStats.allocatedBytes();
+        final JarServiceProviderConfigurationEntry ret = this.transformer.transform(entry);
+        this.record(wall, cpu, allocated, null, null);
+        return ret;
+    }
+
+    private long record(final long wall, final long cpu, final long allocated, final AbstractJarEntry in, final AbstractJarEntry out) {
+        final long time = System.nanoTime() - wall;
+        this.counters.count.increment();
+        this.counters.wall.add(time);
+        this.counters.cpu.add(RemapStats.cpuTime() - cpu);
+        this.counters.allocated.add(RemapStats.allocatedBytes() - allocated);
+        if (in != null) {
+            this.counters.bytesIn.add(in.getContents().length);
+        }
+        if (out != null) {
+            this.counters.bytesOut.add(out.getContents().length);
+        }
+        return time;
+    }
+
+    @Override
+    public List<AbstractJarEntry> additions() {
+        return this.transformer.additions();
+    }
+
+}
@@ -0,0 +1,284 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.cadixdev.vignette.stats;
+
+import org.cadixdev.bombe.jar.JarEntryTransformer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects where the time of a run goes: wall and CPU time and the
+ * memory allocated by each phase, and the same per transformer along
+ * with entry counts, bytes in and out and the slowest classes.
+ * <p>
+ * CPU time and allocation are read from the {@link ThreadMXBean} for
+ * the thread doing the work, so they only cover that thread. Where the
+ * JVM can't report either, it is shown as {@code -1}. Nothing is
+ * measured unless a run is given an instance, transformers are only
+ * wrapped when stats are wanted.
+ *
+ * @since 0.2.0
+ */
+public final class RemapStats {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU = THREADS.isCurrentThreadCpuTimeSupported();
+    private static final boolean ALLOCATION = allocationSupported();
+
+    private static boolean allocationSupported() {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean)) {
+            return false;
+        }
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return false;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return true;
+    }
+
+    static long cpuTime() {
+        return CPU ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    static long allocatedBytes() {
+        return ALLOCATION ? ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+    }
+
+    private final int slowestCount;
+    private final Map<String, Counters> phases = new LinkedHashMap<>();
+    private final Map<String, Counters> transformers = new LinkedHashMap<>();
+    private final PriorityQueue<Slow> slowest = new PriorityQueue<>();
+    private volatile long slowestFloor = 0;
+
+    /**
+     * @param slowestCount How many of the slowest classes to keep
+     */
+    public RemapStats(final int slowestCount) {
+        this.slowestCount = slowestCount;
+    }
+
+    /**
+     * Starts timing a phase on the current thread, to be closed on the
+     * same thread. Phases with the same name add up.
+     *
+     * @param name The phase
+     * @return The timer, which records the phase when closed
+     */
+    public Timer time(final String name) {
+        final Counters counters;
+        synchronized (this.phases) {
+            counters = this.phases.computeIfAbsent(name, k -> new Counters());
+        }
+        return new Timer(counters);
+    }
+
+    /**
+     * Wraps a transformer to record the work done by it.
+     *
+     * @param name The name to report the transformer under, transformers
+     *             with the same name add up
+     * @param transformer The transformer
+     * @return The wrapped transformer
+     */
+    public JarEntryTransformer instrument(final String name, final JarEntryTransformer transformer) {
+        final Counters counters;
+        synchronized (this.transformers) {
+            counters = this.transformers.computeIfAbsent(name, k -> new Counters());
+        }
+        return new InstrumentedTransformer(this, name, counters, transformer);
+    }
+
+    void recordClass(final String transformer, final String className, final long wall) {
+        if (this.slowestCount <= 0 || wall <= this.slowestFloor) {
+            return;
+        }
+        synchronized (this.slowest) {
+            this.slowest.add(new Slow(wall, transformer, className));
+            if (this.slowest.size() > this.slowestCount) {
+                this.slowest.poll();
+            }
+            if (this.slowest.size() == this.slowestCount) {
+                this.slowestFloor = this.slowest.peek().wall;
+            }
+        }
+    }
+
+    private List<Slow> slowest() {
+        final List<Slow> ret;
+        synchronized (this.slowest) {
+            ret = new ArrayList<>(this.slowest);
+        }
+        ret.sort(Comparator.reverseOrder());
+        return ret;
+    }
+
+    /**
+     * @return The report as a table, for people
+     */
+    public String toTable() {
+        final StringBuilder ret = new StringBuilder();
+        ret.append(String.format(Locale.ROOT, "%-32s %8s %10s %10s %10s%n", "Phase", "Count", "Wall ms", "CPU ms", "Alloc MB"));
+        synchronized (this.phases) {
+            for (final Map.Entry<String, Counters> entry : this.phases.entrySet()) {
+                final Counters c = entry.getValue();
+                ret.append(String.format(Locale.ROOT, "%-32s %8d %10s %10s %10s%n", entry.getKey(), c.count.sum(),
+                        millis(c.wall.sum()), CPU ? millis(c.cpu.sum()) : "-1", ALLOCATION ? megabytes(c.allocated.sum()) : "-1"));
+            }
+        }
+
+        ret.append(String.format(Locale.ROOT, "%n%-32s %8s %10s %10s %10s %10s %10s %10s%n", "Transformer", "Entries", "In MB", "Out MB", "Wall ms", "CPU ms", "Alloc MB", "Entries/s"));
+        synchronized (this.transformers) {
+            for (final Map.Entry<String, Counters> entry : this.transformers.entrySet()) {
+                final Counters c = entry.getValue();
+                final long wall = c.wall.sum();
+                ret.append(String.format(Locale.ROOT, "%-32s %8d %10s %10s %10s %10s %10s %10d%n", entry.getKey(), c.count.sum(),
+                        megabytes(c.bytesIn.sum()), megabytes(c.bytesOut.sum()), millis(wall),
+                        CPU ? millis(c.cpu.sum()) : "-1", ALLOCATION ? megabytes(c.allocated.sum()) : "-1",
+                        wall == 0 ? 0 : c.count.sum() * 1000000000L / wall));
+            }
+        }
+
+        final List<Slow> slowest = this.slowest();
+        if (!slowest.isEmpty()) {
+            ret.append(String.format(Locale.ROOT, "%n%-32s %10s  %s%n", "Slowest classes", "Wall ms", "Class"));
+            for (final Slow slow : slowest) {
+                ret.append(String.format(Locale.ROOT, "%-32s %10s  %s%n", slow.transformer, millis(slow.wall), slow.className));
+            }
+        }
+        return ret.toString();
+    }
+
+    /**
+     * @return The report as JSON, for tools; times are in nanoseconds
+     *         and sizes in bytes
+     */
+    public String toJson() {
+        final StringBuilder ret = new StringBuilder("{\n  \"phases\": [");
+        synchronized (this.phases) {
+            String sep = "\n";
+            for (final Map.Entry<String, Counters> entry : this.phases.entrySet()) {
+                final Counters c = entry.getValue();
+                ret.append(sep).append("    {\"name\": ").append(quote(entry.getKey()))
+                        .append(", \"count\": ").append(c.count.sum())
+                        .append(", \"wallNanos\": ").append(c.wall.sum())
+                        .append(", \"cpuNanos\": ").append(CPU ? c.cpu.sum() : -1)
+                        .append(", \"allocatedBytes\": ").append(ALLOCATION ? c.allocated.sum() : -1).append('}');
+                sep = ",\n";
+            }
+        }
+        ret.append("\n  ],\n  \"transformers\": [");
+        synchronized (this.transformers) {
+            String sep = "\n";
+            for (final Map.Entry<String, Counters> entry : this.transformers.entrySet()) {
+                final Counters c = entry.getValue();
+                ret.append(sep).append("    {\"name\": ").append(quote(entry.getKey()))
+                        .append(", \"entries\": ").append(c.count.sum())
+                        .append(", \"bytesIn\": ").append(c.bytesIn.sum())
+                        .append(", \"bytesOut\": ").append(c.bytesOut.sum())
+                        .append(", \"wallNanos\": ").append(c.wall.sum())
+                        .append(", \"cpuNanos\": ").append(CPU ? c.cpu.sum() : -1)
+                        .append(", \"allocatedBytes\": ").append(ALLOCATION ? c.allocated.sum() : -1).append('}');
+                sep = ",\n";
+            }
+        }
+        ret.append("\n  ],\n  \"slowest\": [");
+        String sep = "\n";
+        for (final Slow slow : this.slowest()) {
+            ret.append(sep).append("    {\"transformer\": ").append(quote(slow.transformer))
+                    .append(", \"class\": ").append(quote(slow.className))
+                    .append(", \"wallNanos\": ").append(slow.wall).append('}');
+            sep = ",\n";
+        }
+        return ret.append("\n  ]\n}\n").toString();
+    }
+
+    private static String millis(final long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1e6);
+    }
+
+    private static String megabytes(final long bytes) {
+        return String.format(Locale.ROOT, "%.1f", bytes / (1024.0 * 1024.0));
+    }
+
+    private static String quote(final String value) {
+        final StringBuilder ret = new StringBuilder("\"");
+        for (int x = 0; x < value.length(); x++) {
+            final char c = value.charAt(x);
+            if (c == '"' || c == '\\') {
+                ret.append('\\').append(c);
+            }
+            else if (c < 0x20) {
+                ret.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            }
+            else {
+                ret.append(c);
+            }
+        }
+        return ret.append('"').toString();
+    }
+
+    static final class Counters {
+        final LongAdder count = new LongAdder();
+        final LongAdder bytesIn = new LongAdder();
+        final LongAdder bytesOut = new LongAdder();
+        final LongAdder wall = new LongAdder();
+        final LongAdder cpu = new LongAdder();
+        final LongAdder allocated = new LongAdder();
+    }
+
+    private static final class Slow implements Comparable<Slow> {
+        final long wall;
+        final String transformer;
+        final String className;
+
+        Slow(final long wall, final String transformer, final String className) {
+            this.wall = wall;
+            this.transformer = transformer;
+            this.className = className;
+        }
+
+        @Override
+        public int compareTo(final Slow o) {
+            return Long.compare(this.wall, o.wall);
+        }
+    }
+
+    /**
+     * Times one phase, see {@link #time(String)}.
+     */
+    public static final class Timer implements AutoCloseable {
+
+        private final Counters counters;
+        private final long wall = System.nanoTime();
+        private final long cpu = cpuTime();
+        private final long allocated = allocatedBytes();
+
+        Timer(final Counters counters) {
+            this.counters = counters;
+        }
+
+        @Override
+        public void close() {
+            this.counters.count.increment();
+            this.counters.wall.add(System.nanoTime() - this.wall);
+            this.counters.cpu.add(cpuTime() - this.cpu);
+            this.counters.allocated.add(allocatedBytes() - this.allocated);
+        }
+
+    }
+
+}
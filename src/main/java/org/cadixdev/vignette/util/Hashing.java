@@ -0,0 +1,65 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.cadixdev.vignette.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-1 helpers used to key Vignette's on-disk caches.
+ *
+ * @since 0.2.0
+ */
+public final class Hashing {
+
+    public static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (final NoSuchAlgorithmException ex) {
+            throw new RuntimeException("SHA-1 is not available!", ex); // Required to exist by the JLS, so this can't happen
+        }
+    }
+
+    public static byte[] sha1(final Path path) throws IOException {
+        final MessageDigest digest = sha1();
+        final byte[] buf = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(path)) {
+            int len;
+            while ((len = in.read(buf)) != -1) {
+                digest.update(buf, 0, len);
+            }
+        }
+        return digest.digest();
+    }
+
+    public static byte[] sha1(final byte[] data) {
+        return sha1().digest(data);
+    }
+
+    public static String sha1(final String value) {
+        return toHex(sha1(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public static String toHex(final byte[] data) {
+        final char[] ret = new char[data.length * 2];
+        for (int x = 0; x < data.length; x++) {
+            ret[x * 2] = Character.forDigit((data[x] >> 4) & 0xF, 16);
+            ret[x * 2 + 1] = Character.forDigit(data[x] & 0xF, 16);
+        }
+        return new String(ret);
+    }
+
+    private Hashing() {
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+
+package org.cadixdev.vignette.util;
+
+import org.cadixdev.bombe.asm.jar.ClassProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A {@link ClassProvider} reading classes straight from a jar, which,
+ * unlike one added to Atlas by path, stays open across runs until it is
+ * closed.
+ *
+ * @since 0.2.0
+ */
+public final class JarClassProvider implements ClassProvider, Closeable {
+
+    private final ZipFile zip;
+
+    public JarClassProvider(final Path jar) throws IOException {
+        this.zip = new ZipFile(jar.toFile());
+    }
+
+    @Override
+    public byte[] get(final String klass) {
+        final ZipEntry entry = this.zip.getEntry(klass + ".class");
+        if (entry == null) {
+            return null;
+        }
+
+        try (InputStream in = this.zip.getInputStream(entry)) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max((int) entry.getSize(), 32));
+            final byte[] buf = new byte[8192];
+            int len;
+            while ((len = in.read(buf)) != -1) {
+                out.write(buf, 0, len);
+            }
+            return out.toByteArray();
+        }
+        catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.zip.close();
+    }
+
+}